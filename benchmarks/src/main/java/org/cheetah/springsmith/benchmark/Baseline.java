@@ -0,0 +1,60 @@
+package org.cheetah.springsmith.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.JavaFileObject;
+
+// Quick baseline table (markdown) without JMH: medians of a few runs per model after one warm-up run.
+//   java -cp target/benchmarks.jar org.cheetah.springsmith.benchmark.Baseline [runs] [processor options...]
+// e.g. ... Baseline 5 springsmith.parallel=true springsmith.metrics=true
+public final class Baseline {
+
+    private static final SyntheticModel[] MODELS = {
+            new SyntheticModel(10, 5, 1, 0, 42),
+            new SyntheticModel(10, 20, 3, 2, 42),
+            new SyntheticModel(100, 5, 1, 0, 42),
+            new SyntheticModel(100, 20, 3, 2, 42),
+            new SyntheticModel(1000, 5, 1, 0, 42),
+            new SyntheticModel(1000, 20, 3, 2, 42),
+    };
+
+    private Baseline() {
+    }
+
+    public static void main(String[] args) {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        Map<String, String> options = new java.util.LinkedHashMap<>();
+        for (String option : Arrays.asList(args).subList(Math.min(1, args.length), args.length)) {
+            String[] pair = option.split("=", 2);
+            options.put(pair[0], pair.length > 1 ? pair[1] : "true");
+        }
+
+        System.out.println("| Model | Files per round | javac wall (ms) | javac alloc (MB) | process() (ms) | process() alloc (MB) |");
+        System.out.println("|---|---|---:|---:|---:|---:|");
+        for (SyntheticModel model : MODELS) {
+            List<JavaFileObject> sources = model.sources();
+            InMemoryCompiler.Result first = InMemoryCompiler.compile(sources, options);
+            if (!first.errors().isEmpty()) {
+                throw new IllegalStateException(model + ": " + first.errors().get(0));
+            }
+            List<InMemoryCompiler.Result> results = new ArrayList<>();
+            for (int i = 0; i < runs; i++) {
+                results.add(InMemoryCompiler.compile(sources, options));
+            }
+            long wall = median(results.stream().mapToLong(InMemoryCompiler.Result::wallNanos).toArray());
+            long allocated = median(results.stream().mapToLong(InMemoryCompiler.Result::allocatedBytes).toArray());
+            long processor = median(results.stream().mapToLong(InMemoryCompiler.Result::processorNanos).toArray());
+            long processorAllocated = median(results.stream().mapToLong(InMemoryCompiler.Result::processorAllocatedBytes).toArray());
+            System.out.printf("| %s | %s | %.0f | %.0f | %.0f | %.0f |%n", model, first.filesPerRound(),
+                    wall / 1e6, allocated / 1e6, processor / 1e6, processorAllocated / 1e6);
+        }
+    }
+
+    private static long median(long[] values) {
+        Arrays.sort(values);
+        return values[values.length / 2];
+    }
+}
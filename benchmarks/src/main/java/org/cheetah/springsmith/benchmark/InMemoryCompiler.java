@@ -0,0 +1,184 @@
+package org.cheetah.springsmith.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.Completion;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.cheetah.springsmith.processor.CrudScaffoldingProcessor;
+
+// Runs javac in-process with only CrudScaffoldingProcessor attached; generated files stay in memory.
+// -proc:only: the measure is annotation processing (including parsing/entering the generated sources between rounds),
+// not the compilation of the generated code.
+public final class InMemoryCompiler {
+
+    // Time and allocation inside CrudScaffoldingProcessor.process(), and the files it created, for one round
+    public record Round(int files, long nanos, long allocatedBytes) {
+    }
+
+    public record Result(long wallNanos, long allocatedBytes, List<Round> rounds, List<String> errors) {
+
+        public int generatedFiles() {
+            return rounds.stream().mapToInt(Round::files).sum();
+        }
+
+        public long processorNanos() {
+            return rounds.stream().mapToLong(Round::nanos).sum();
+        }
+
+        public long processorAllocatedBytes() {
+            return rounds.stream().mapToLong(Round::allocatedBytes).sum();
+        }
+
+        public List<Integer> filesPerRound() {
+            return rounds.stream().map(Round::files).toList();
+        }
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private InMemoryCompiler() {
+    }
+
+    public static Result compile(List<JavaFileObject> sources, Map<String, String> processorOptions) {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null) {
+            throw new IllegalStateException("No system Java compiler: run the benchmarks on a JDK");
+        }
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        List<String> options = new ArrayList<>(List.of("-proc:only", "-classpath", System.getProperty("java.class.path")));
+        processorOptions.forEach((name, value) -> options.add("-A" + name + "=" + value));
+
+        long allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+
+        MemoryFileManager files = new MemoryFileManager(javac.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8));
+        RoundRecorder recorder = new RoundRecorder(new CrudScaffoldingProcessor(), files);
+        JavaCompiler.CompilationTask task = javac.getTask(null, files, diagnostics, options, null, sources);
+        task.setProcessors(List.of(recorder));
+        task.call();
+
+        long wall = System.nanoTime() - start;
+        // compiler thread only: the fork-join workers of springsmith.parallel are not accounted (use -prof gc)
+        long allocated = THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        List<String> errors = diagnostics.getDiagnostics().stream()
+                .filter(d -> d.getKind() == Diagnostic.Kind.ERROR)
+                .map(d -> d.getMessage(null))
+                .toList();
+        return new Result(wall, allocated, recorder.rounds, errors);
+    }
+
+    // Measures each round of the processor
+    private static final class RoundRecorder implements Processor {
+        private final Processor delegate;
+        private final MemoryFileManager files;
+        private final List<Round> rounds = new ArrayList<>();
+
+        RoundRecorder(Processor delegate, MemoryFileManager files) {
+            this.delegate = delegate;
+            this.files = files;
+        }
+
+        @Override
+        public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+            int before = files.generated;
+            long allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            boolean claimed = delegate.process(annotations, roundEnv);
+            rounds.add(new Round(files.generated - before, System.nanoTime() - start,
+                    THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore));
+            return claimed;
+        }
+
+        @Override
+        public Set<String> getSupportedOptions() {
+            return delegate.getSupportedOptions();
+        }
+
+        @Override
+        public Set<String> getSupportedAnnotationTypes() {
+            return delegate.getSupportedAnnotationTypes();
+        }
+
+        @Override
+        public SourceVersion getSupportedSourceVersion() {
+            return delegate.getSupportedSourceVersion();
+        }
+
+        @Override
+        public void init(ProcessingEnvironment processingEnv) {
+            delegate.init(processingEnv);
+        }
+
+        @Override
+        public Iterable<? extends Completion> getCompletions(Element element, AnnotationMirror annotation,
+                                                             ExecutableElement member, String userText) {
+            return delegate.getCompletions(element, annotation, member, userText);
+        }
+    }
+
+    private static final class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+        private int generated;
+
+        MemoryFileManager(StandardJavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
+                                                   FileObject sibling) {
+            generated++;
+            return new MemoryFile(className, kind);
+        }
+
+        @Override
+        public FileObject getFileForOutput(Location location, String packageName, String relativeName, FileObject sibling) {
+            generated++;
+            return new MemoryFile(packageName + "." + relativeName, JavaFileObject.Kind.OTHER);
+        }
+    }
+
+    // Written by the Filer, read back by javac when it enters the generated sources in the next round
+    private static final class MemoryFile extends SimpleJavaFileObject {
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+        MemoryFile(String name, Kind kind) {
+            super(URI.create("mem:///" + name.replace('.', '/') + kind.extension), kind);
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return content;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return content.toString(StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.cheetah.springsmith.benchmark;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.tools.JavaFileObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// One invocation = one full javac run over the synthetic model. Allocation: add -prof gc.
+//   java -jar target/benchmarks.jar ProcessorBenchmark -p entities=100 -prof gc
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ProcessorBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int entities;
+
+    @Param({"5", "20"})
+    public int fields;
+
+    @Param({"1"})
+    public int manyToOne;
+
+    @Param({"0"})
+    public int oneToMany;
+
+    @Param({"false"})
+    public boolean parallel;
+
+    private List<JavaFileObject> sources;
+    private Map<String, String> options;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        sources = new SyntheticModel(entities, fields, manyToOne, oneToMany, 42).sources();
+        options = Map.of("springsmith.parallel", String.valueOf(parallel));
+        InMemoryCompiler.Result check = InMemoryCompiler.compile(sources, options);
+        if (!check.errors().isEmpty()) {
+            throw new IllegalStateException("Synthetic model does not compile: " + check.errors().get(0));
+        }
+    }
+
+    @Benchmark
+    public int process() {
+        return InMemoryCompiler.compile(sources, options).generatedFiles();
+    }
+}
@@ -0,0 +1,77 @@
+package org.cheetah.springsmith.benchmark;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+
+// A generated JPA domain model: `entities` classes with `fields` scalar fields each, plus `manyToOne` and `oneToMany`
+// relations per entity towards random other entities. The same seed always yields the same sources.
+public record SyntheticModel(int entities, int fields, int manyToOne, int oneToMany, long seed) {
+
+    static final String PACKAGE = "bench.domain.entity";
+
+    private static final String[] SCALAR_TYPES = {
+            "String", "Integer", "Long", "Boolean", "java.math.BigDecimal", "java.time.LocalDate", "java.time.Instant"
+    };
+
+    public List<JavaFileObject> sources() {
+        Random random = new Random(seed);
+        List<JavaFileObject> sources = new ArrayList<>(entities);
+        for (int i = 0; i < entities; i++) {
+            sources.add(new Source(PACKAGE + ".Entity" + i, entity(i, random)));
+        }
+        return sources;
+    }
+
+    private String entity(int index, Random random) {
+        StringBuilder src = new StringBuilder()
+                .append("package ").append(PACKAGE).append(";\n\n")
+                .append("import jakarta.persistence.*;\n\n")
+                .append("@Entity\n")
+                .append("public class Entity").append(index).append(" {\n")
+                .append("    @Id @GeneratedValue private Long id;\n");
+        if (index % 2 == 0) {
+            src.append("    @Version private Long version;\n");
+        }
+        for (int f = 0; f < fields; f++) {
+            src.append("    private ").append(SCALAR_TYPES[random.nextInt(SCALAR_TYPES.length)])
+                    .append(" field").append(f).append(";\n");
+        }
+        for (int r = 0; r < manyToOne && entities > 1; r++) {
+            src.append("    @ManyToOne private Entity").append(other(index, random)).append(" parent").append(r).append(";\n");
+        }
+        for (int r = 0; r < oneToMany && entities > 1; r++) {
+            src.append("    @OneToMany private java.util.List<Entity").append(other(index, random)).append("> children")
+                    .append(r).append(";\n");
+        }
+        return src.append("}\n").toString();
+    }
+
+    private int other(int index, Random random) {
+        int other = random.nextInt(entities - 1);
+        return other >= index ? other + 1 : other;
+    }
+
+    @Override
+    public String toString() {
+        return entities + " entities x " + fields + " fields, " + manyToOne + " @ManyToOne / " + oneToMany + " @OneToMany each";
+    }
+
+    static final class Source extends SimpleJavaFileObject {
+        private final String content;
+
+        Source(String qualifiedName, String content) {
+            super(URI.create("string:///" + qualifiedName.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            this.content = content;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return content;
+        }
+    }
+}
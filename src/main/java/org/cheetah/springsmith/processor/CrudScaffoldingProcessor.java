@@ -1,11 +1,23 @@
 package org.cheetah.springsmith.processor;
 
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import javax.annotation.processing.AbstractProcessor;
 import javax.annotation.processing.Messager;
@@ -13,22 +25,28 @@ import javax.annotation.processing.ProcessingEnvironment;
 import javax.annotation.processing.Processor;
 import javax.annotation.processing.RoundEnvironment;
 import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
 import javax.annotation.processing.SupportedSourceVersion;
 import javax.lang.model.SourceVersion;
 import javax.lang.model.element.AnnotationMirror;
 import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
 import javax.lang.model.element.Modifier;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
 import javax.lang.model.type.TypeMirror;
 import javax.lang.model.util.ElementFilter;
 import javax.lang.model.util.Elements;
 import javax.lang.model.util.Types;
 import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
 
 import com.google.auto.service.AutoService;
 import com.squareup.javapoet.AnnotationSpec;
 import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
 import com.squareup.javapoet.FieldSpec;
 import com.squareup.javapoet.JavaFile;
 import com.squareup.javapoet.MethodSpec;
@@ -36,6 +54,8 @@ import com.squareup.javapoet.ParameterSpec;
 import com.squareup.javapoet.ParameterizedTypeName;
 import com.squareup.javapoet.TypeName;
 import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.TypeVariableName;
+import com.squareup.javapoet.WildcardTypeName;
 
 @AutoService(Processor.class)
 @SupportedSourceVersion(SourceVersion.RELEASE_17)
@@ -43,6 +63,28 @@ import com.squareup.javapoet.TypeSpec;
         "javax.persistence.Entity",
         "jakarta.persistence.Entity"
 })
+@SupportedOptions({
+        CrudScaffoldingProcessor.OPTION_MAX_PAGE_SIZE,
+        CrudScaffoldingProcessor.OPTION_STREAMING,
+        CrudScaffoldingProcessor.OPTION_STREAM_FETCH_SIZE,
+        CrudScaffoldingProcessor.OPTION_BATCH_CHUNK_SIZE,
+        CrudScaffoldingProcessor.OPTION_CACHE,
+        CrudScaffoldingProcessor.OPTION_METRICS,
+        CrudScaffoldingProcessor.OPTION_TARGET,
+        CrudScaffoldingProcessor.OPTION_PARALLEL,
+        CrudScaffoldingProcessor.OPTION_TIMINGS,
+        CrudScaffoldingProcessor.OPTION_BENCHMARKS,
+        CrudScaffoldingProcessor.OPTION_JSON_CODECS,
+        CrudScaffoldingProcessor.OPTION_BINARY_FORMATS,
+        CrudScaffoldingProcessor.OPTION_EXPAND,
+        CrudScaffoldingProcessor.OPTION_FILTERS,
+        CrudScaffoldingProcessor.OPTION_SPARSE_FIELDS,
+        CrudScaffoldingProcessor.OPTION_AOT,
+        CrudScaffoldingProcessor.OPTION_BULKHEAD,
+        CrudScaffoldingProcessor.OPTION_CHANGES,
+        CrudScaffoldingProcessor.OPTION_CHANGES_TOMBSTONE,
+        CrudScaffoldingProcessor.OPTION_READ_REPLICA
+})
 public class CrudScaffoldingProcessor extends AbstractProcessor {
 
     private Messager messager;
@@ -54,6 +96,106 @@ public class CrudScaffoldingProcessor extends AbstractProcessor {
     private static final String BASE_PACKAGE_SUFFIX_REPO = "repositories";
     private static final String BASE_PACKAGE_SUFFIX_SERVICE = "services";
     private static final String BASE_PACKAGE_SUFFIX_CONTROLLER = "controllers";
+    private static final String BASE_PACKAGE_SUFFIX_BENCHMARK = "benchmarks";
+    private static final String BASE_PACKAGE_SUFFIX_CONFIG = "config";
+
+    // Processor options (-A<option>=<value>)
+    static final String OPTION_MAX_PAGE_SIZE = "springsmith.maxPageSize";
+    static final String OPTION_STREAMING = "springsmith.streaming";
+    static final String OPTION_STREAM_FETCH_SIZE = "springsmith.streamFetchSize";
+    static final String OPTION_BATCH_CHUNK_SIZE = "springsmith.batchChunkSize";
+    static final String OPTION_CACHE = "springsmith.cache";
+    static final String OPTION_METRICS = "springsmith.metrics";
+    static final String OPTION_TARGET = "springsmith.target";
+    static final String OPTION_PARALLEL = "springsmith.parallel";
+    static final String OPTION_TIMINGS = "springsmith.timings";
+    static final String OPTION_BENCHMARKS = "springsmith.benchmarks";
+    static final String OPTION_JSON_CODECS = "springsmith.jsonCodecs";
+    static final String OPTION_BINARY_FORMATS = "springsmith.binaryFormats";
+    static final String OPTION_EXPAND = "springsmith.expand";
+    static final String OPTION_FILTERS = "springsmith.filters";
+    static final String OPTION_SPARSE_FIELDS = "springsmith.sparseFields";
+    static final String OPTION_AOT = "springsmith.aot";
+    static final String OPTION_BULKHEAD = "springsmith.bulkhead";
+    static final String OPTION_CHANGES = "springsmith.changes";
+    static final String OPTION_CHANGES_TOMBSTONE = "springsmith.changesTombstone";
+    static final String OPTION_READ_REPLICA = "springsmith.readReplica";
+
+    // Generation targets (-Aspringsmith.target=...)
+    static final String TARGET_SERVLET = "servlet";
+    static final String TARGET_REACTIVE = "reactive";
+
+    // Binary formats (-Aspringsmith.binaryFormats=...), in the order the controllers advertise them
+    static final String FORMAT_CBOR = "cbor";
+    static final String FORMAT_SMILE = "smile";
+    private static final String SMILE_MEDIA_TYPE = "application/x-jackson-smile";
+
+    private static final int DEFAULT_MAX_PAGE_SIZE = 100;
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int DEFAULT_STREAM_FETCH_SIZE = 500;
+    private static final int DEFAULT_BATCH_CHUNK_SIZE = 50;
+    private static final int DEFAULT_BULKHEAD_MAX_CONCURRENT = 10;
+    private static final int DEFAULT_BULKHEAD_MAX_WAIT_MILLIS = 50;
+    // bulkhead operation of the NDJSON export, outside controllerOps: it is neither timed nor guarded by the weaver
+    private static final String STREAM_OP = "stream";
+
+    // filter properties of these types also get xxxFrom / xxxTo (springsmith.filters)
+    private static final Set<String> RANGE_FILTER_TYPES = Set.of(
+            "java.lang.Byte", "java.lang.Short", "java.lang.Integer", "java.lang.Long", "java.lang.Float", "java.lang.Double",
+            "java.math.BigDecimal", "java.math.BigInteger", "java.time.Instant", "java.time.LocalDate", "java.time.LocalTime",
+            "java.time.LocalDateTime", "java.time.OffsetDateTime", "java.time.ZonedDateTime");
+
+    // change feed cursor: both parts are written with toString() and read back with parse/valueOf
+    private static final Set<String> CHANGE_TIMESTAMP_TYPES = Set.of(
+            "java.time.Instant", "java.time.LocalDateTime", "java.time.OffsetDateTime", "java.time.ZonedDateTime");
+    private static final Set<String> CHANGE_ID_TYPES = Set.of(
+            "java.lang.Integer", "java.lang.Long", "java.lang.String", "java.util.UUID");
+
+    private int maxPageSize = DEFAULT_MAX_PAGE_SIZE;
+    private boolean streaming;
+    private int streamFetchSize = DEFAULT_STREAM_FETCH_SIZE;
+    private int batchChunkSize = DEFAULT_BATCH_CHUNK_SIZE;
+    private Set<String> cachedEntities = Set.of();
+    private boolean metrics;
+    private String target = TARGET_SERVLET;
+    private boolean parallel;
+    private boolean timings;
+    private Path benchmarksDir;
+    private boolean jsonCodecs;
+    private List<String> binaryFormats = List.of();
+    private boolean sharedWritten;
+    private boolean expand;
+    private boolean filters;
+    private boolean sparseFields;
+    private boolean aot;
+    private boolean bulkhead;
+    private boolean changes;
+    private String changesTombstone;
+    private boolean readReplica;
+
+    // Annotation and type lookups resolved once in init (javax and jakarta variants share a set)
+    private Set<Element> entityAnnotations;
+    private Set<Element> superclassAnnotations;
+    private Set<Element> idAnnotations;
+    private Set<Element> versionAnnotations;
+    private Set<Element> lastModifiedAnnotations;
+    private Set<Element> toOneAnnotations;
+    private Set<Element> toManyAnnotations;
+    private Set<Element> transientAnnotations;
+    private Set<Element> springDataIdAnnotations;
+    private Set<Element> generatedValueAnnotations;
+    private TypeMirror collectionType;
+
+    // per-round caches, see model(TypeElement); filled by snapshot() before the (possibly parallel) builders read them
+    private final Map<TypeElement, EntityModel> models = new ConcurrentHashMap<>();
+    private final Map<TypeElement, List<DtoField>> dtoFieldCache = new ConcurrentHashMap<>();
+    private final ThreadLocal<List<Report>> pendingReports = new ThreadLocal<>();
+    private Thread compilerThread;
+    // springsmith.parallel: created by the first round that needs it, shut down in the last round
+    private ForkJoinPool pool;
+
+    // Incremental builds: entities already generated by this processor instance, skipped in later rounds
+    private final Set<String> processedEntities = new HashSet<>();
 
     @Override
     public synchronized void init(ProcessingEnvironment processingEnv) {
@@ -61,10 +203,171 @@ public class CrudScaffoldingProcessor extends AbstractProcessor {
         this.messager = processingEnv.getMessager();
         this.elementUtils = processingEnv.getElementUtils();
         this.typeUtils = processingEnv.getTypeUtils();
+        this.maxPageSize = intOption(OPTION_MAX_PAGE_SIZE, DEFAULT_MAX_PAGE_SIZE);
+        this.streaming = booleanOption(OPTION_STREAMING);
+        this.streamFetchSize = intOption(OPTION_STREAM_FETCH_SIZE, DEFAULT_STREAM_FETCH_SIZE);
+        this.batchChunkSize = intOption(OPTION_BATCH_CHUNK_SIZE, DEFAULT_BATCH_CHUNK_SIZE);
+        this.cachedEntities = listOption(OPTION_CACHE);
+        this.metrics = booleanOption(OPTION_METRICS);
+        this.target = targetOption();
+        this.parallel = booleanOption(OPTION_PARALLEL);
+        this.timings = booleanOption(OPTION_TIMINGS);
+        this.benchmarksDir = benchmarksOption();
+        this.jsonCodecs = booleanOption(OPTION_JSON_CODECS);
+        this.binaryFormats = binaryFormatsOption();
+        this.expand = servletOnlyOption(OPTION_EXPAND);
+        this.filters = servletOnlyOption(OPTION_FILTERS);
+        this.sparseFields = servletOnlyOption(OPTION_SPARSE_FIELDS);
+        this.aot = booleanOption(OPTION_AOT);
+        this.bulkhead = servletOnlyOption(OPTION_BULKHEAD);
+        this.changes = servletOnlyOption(OPTION_CHANGES);
+        this.changesTombstone = processingEnv.getOptions().get(OPTION_CHANGES_TOMBSTONE);
+        this.readReplica = servletOnlyOption(OPTION_READ_REPLICA);
+
+        this.entityAnnotations = annotationTypes("javax.persistence.Entity", "jakarta.persistence.Entity");
+        this.superclassAnnotations = annotationTypes("javax.persistence.MappedSuperclass", "jakarta.persistence.MappedSuperclass",
+                "javax.persistence.Entity", "jakarta.persistence.Entity");
+        this.idAnnotations = annotationTypes("javax.persistence.Id", "jakarta.persistence.Id");
+        this.versionAnnotations = annotationTypes("javax.persistence.Version", "jakarta.persistence.Version");
+        this.lastModifiedAnnotations = annotationTypes("org.springframework.data.annotation.LastModifiedDate",
+                "org.hibernate.annotations.UpdateTimestamp");
+        this.toOneAnnotations = annotationTypes("javax.persistence.ManyToOne", "jakarta.persistence.ManyToOne",
+                "javax.persistence.OneToOne", "jakarta.persistence.OneToOne");
+        this.toManyAnnotations = annotationTypes("javax.persistence.OneToMany", "jakarta.persistence.OneToMany",
+                "javax.persistence.ManyToMany", "jakarta.persistence.ManyToMany");
+        this.transientAnnotations = annotationTypes("javax.persistence.Transient", "jakarta.persistence.Transient");
+        this.springDataIdAnnotations = annotationTypes("org.springframework.data.annotation.Id");
+        this.generatedValueAnnotations = annotationTypes("javax.persistence.GeneratedValue", "jakarta.persistence.GeneratedValue");
+        this.collectionType = typeUtils.erasure(elementUtils.getTypeElement("java.util.Collection").asType());
+    }
+
+    private Set<Element> annotationTypes(String... names) {
+        Set<Element> types = new HashSet<>();
+        for (String name : names) {
+            TypeElement type = elementUtils.getTypeElement(name);
+            if (type != null) types.add(type);
+        }
+        return types;
+    }
+
+    private String targetOption() {
+        String value = processingEnv.getOptions().getOrDefault(OPTION_TARGET, TARGET_SERVLET).trim();
+        if (!Set.of(TARGET_SERVLET, TARGET_REACTIVE).contains(value)) {
+            messager.printMessage(Diagnostic.Kind.WARNING,
+                    "Invalid value '" + value + "' for option " + OPTION_TARGET + "; using " + TARGET_SERVLET);
+            return TARGET_SERVLET;
+        }
+        if (value.equals(TARGET_REACTIVE)) {
+            // both are built around blocking calls: timers and a synchronous cache would measure/guard nothing
+            if (metrics || !cachedEntities.isEmpty()) {
+                messager.printMessage(Diagnostic.Kind.WARNING,
+                        OPTION_METRICS + " and " + OPTION_CACHE + " are not supported by the reactive target; ignoring them");
+            }
+            metrics = false;
+            cachedEntities = Set.of();
+        }
+        return value;
+    }
+
+    // springsmith.benchmarks=<dir>: JMH benchmarks and throughput tests need test dependencies, so they are written to
+    // a test source directory instead of going through the Filer (which only targets the main sources)
+    private Path benchmarksOption() {
+        String value = processingEnv.getOptions().get(OPTION_BENCHMARKS);
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        if (target.equals(TARGET_REACTIVE)) {
+            messager.printMessage(Diagnostic.Kind.WARNING,
+                    OPTION_BENCHMARKS + " drives the generated API through MockMvc and is not supported by the reactive target; ignoring it");
+            return null;
+        }
+        return Path.of(value.trim());
+    }
+
+    // options backed by JPA or blocking servlet code: the reactive target warns and ignores them
+    private boolean servletOnlyOption(String key) {
+        if (!booleanOption(key)) {
+            return false;
+        }
+        if (target.equals(TARGET_REACTIVE)) {
+            messager.printMessage(Diagnostic.Kind.WARNING, key + " is not supported by the reactive target; ignoring it");
+            return false;
+        }
+        return true;
+    }
+
+    private List<String> binaryFormatsOption() {
+        Set<String> values = listOption(OPTION_BINARY_FORMATS);
+        for (String value : values) {
+            if (!value.equals(FORMAT_CBOR) && !value.equals(FORMAT_SMILE)) {
+                messager.printMessage(Diagnostic.Kind.WARNING,
+                        "Invalid value '" + value + "' for option " + OPTION_BINARY_FORMATS + "; expected " + FORMAT_CBOR + " or " + FORMAT_SMILE);
+            }
+        }
+        return List.of(FORMAT_CBOR, FORMAT_SMILE).stream().filter(values::contains).toList();
+    }
+
+    // Gradle: isolating (one originating entity per file) unless a shared output, written from all entities, is enabled
+    @Override
+    public Set<String> getSupportedOptions() {
+        Set<String> options = new HashSet<>(super.getSupportedOptions());
+        // benchmarks are written outside the Filer: Gradle could neither clean nor regenerate them, so no incremental claim
+        if (benchmarksDir == null) {
+            options.add(binaryFormats.isEmpty() && !aot && !readReplica ? "org.gradle.annotation.processing.isolating" : "org.gradle.annotation.processing.aggregating");
+        }
+        return options;
+    }
+
+    private Set<String> listOption(String name) {
+        String value = processingEnv.getOptions().get(name);
+        if (value == null || value.isBlank()) {
+            return Set.of();
+        }
+        Set<String> values = new HashSet<>();
+        for (String item : value.split(",")) {
+            if (!item.isBlank()) values.add(item.trim());
+        }
+        return values;
+    }
+
+    // springsmith.cache=true|* caches every entity, otherwise a list of simple or qualified entity names
+    private boolean isCached(TypeElement entity) {
+        return cachedEntities.contains("true") || cachedEntities.contains("*")
+                || cachedEntities.contains(entity.getSimpleName().toString())
+                || cachedEntities.contains(entity.getQualifiedName().toString());
+    }
+
+    private boolean booleanOption(String name) {
+        return Boolean.parseBoolean(processingEnv.getOptions().getOrDefault(name, "false").trim());
+    }
+
+    private int intOption(String name, int defaultValue) {
+        String value = processingEnv.getOptions().get(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            if (parsed > 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException ignored) {
+            // fall through to the warning below
+        }
+        messager.printMessage(Diagnostic.Kind.WARNING,
+                "Invalid value '" + value + "' for option " + name + "; using " + defaultValue);
+        return defaultValue;
     }
 
     @Override
     public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver() && pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+        compilerThread = Thread.currentThread();
+        models.clear();
+        dtoFieldCache.clear();
         Set<Element> entities = new HashSet<>();
         TypeElement javaxEntity = elementUtils.getTypeElement("javax.persistence.Entity");
         TypeElement jakartaEntity = elementUtils.getTypeElement("jakarta.persistence.Entity");
@@ -75,53 +378,383 @@ public class CrudScaffoldingProcessor extends AbstractProcessor {
             entities.addAll(roundEnv.getElementsAnnotatedWith(jakartaEntity));
         }
 
+        // sorted so that output (and diagnostics) do not depend on the round's iteration order
+        List<TypeElement> pending = new ArrayList<>();
         for (Element e : entities) {
             if (!(e instanceof TypeElement)) continue;
             TypeElement entity = (TypeElement) e;
+            if (processedEntities.add(entity.getQualifiedName().toString())) pending.add(entity);
+        }
+        pending.sort(Comparator.comparing(entity -> entity.getQualifiedName().toString()));
+        if (pending.isEmpty()) {
+            return true;
+        }
+
+        long start = System.nanoTime();
+        for (TypeElement entity : pending) {
+            snapshot(entity);
+        }
+        List<Generation> generations = parallel && pending.size() > 1
+                ? generateParallel(pending)
+                : pending.stream().map(this::generate).toList();
+
+        // Filer writes stay on the compiler thread, in entity order
+        for (Generation generation : generations) {
+            TypeElement entity = generation.entity();
+            generation.reports().forEach(r -> messager.printMessage(r.kind(), r.message(), r.element()));
+            long writeStart = System.nanoTime();
             try {
-                generateForEntity(entity);
+                if (generation.failure() != null) throw generation.failure();
+                for (Output output : generation.outputs()) {
+                    write(entity, output.suffix(), output.spec());
+                }
             } catch (Exception ex) {
                 messager.printMessage(Diagnostic.Kind.ERROR,
                         "Errore generazione per " + entity.getSimpleName() + ": " + ex.getMessage());
             }
+            if (timings) {
+                messager.printMessage(Diagnostic.Kind.NOTE, String.format("springsmith: %s built in %.1f ms, written in %.1f ms",
+                        entity.getQualifiedName(), generation.buildNanos() / 1e6, (System.nanoTime() - writeStart) / 1e6));
+            }
+        }
+        // Outputs shared by all entities: written once, next to the first entity of the first round
+        if (!sharedWritten && (!binaryFormats.isEmpty() || aot || readReplica)) {
+            sharedWritten = true;
+            String configPkg = model(pending.get(0)).packageFor(BASE_PACKAGE_SUFFIX_CONFIG);
+            List<TypeSpec> shared = new ArrayList<>();
+            if (!binaryFormats.isEmpty()) {
+                shared.add(buildBinaryFormatsConfiguration());
+            }
+            if (readReplica) {
+                shared.add(buildRoutingDataSourceConfiguration());
+            }
+            if (aot) {
+                shared.add(buildRuntimeHints(generations));
+                shared.add(buildBeansConfiguration(generations, configPkg));
+            }
+            for (TypeSpec spec : shared) {
+                TypeSpec.Builder config = spec.toBuilder();
+                pending.forEach(config::addOriginatingElement);
+                try {
+                    writeFile(JavaFile.builder(configPkg, config.build()).build(), false);
+                } catch (Exception ex) {
+                    messager.printMessage(Diagnostic.Kind.ERROR, "Errore generazione " + spec.name + ": " + ex.getMessage());
+                }
+            }
+        }
+        if (timings) {
+            messager.printMessage(Diagnostic.Kind.NOTE, String.format("springsmith: %d entities generated in %.1f ms (%s)",
+                    pending.size(), (System.nanoTime() - start) / 1e6, parallel ? "parallel" : "serial"));
         }
 
         return true;
     }
 
-    private void generateForEntity(TypeElement entity) throws IOException {
+    // Types built for one entity, still to be written under BASE_PACKAGE_SUFFIX_*
+    private record Output(String suffix, TypeSpec spec) {
+    }
+
+    private record Report(Diagnostic.Kind kind, String message, Element element) {
+    }
+
+    private record Generation(TypeElement entity, List<Output> outputs, List<Report> reports,
+                              RuntimeException failure, long buildNanos) {
+    }
+
+    // javac's Elements/Types are not thread-safe: resolve the models the builders read (entity, related entities,
+    // DTO fields) on the compiler thread, types already converted to JavaPoet names, so that generateForEntity only
+    // reads the caches. model() refuses to resolve anything else off this thread
+    private void snapshot(TypeElement entity) {
+        EntityModel model = model(entity);
+        model.related().values().forEach(this::model);
+        dtoFields(entity);
+        if (target.equals(TARGET_REACTIVE)) {
+            validateReactive(entity);
+        }
+    }
+
+    private Generation generate(TypeElement entity) {
+        List<Report> reports = new ArrayList<>();
+        pendingReports.set(reports);
+        long start = System.nanoTime();
+        try {
+            return new Generation(entity, generateForEntity(entity), reports, null, System.nanoTime() - start);
+        } catch (RuntimeException ex) {
+            return new Generation(entity, List.of(), reports, ex, System.nanoTime() - start);
+        } finally {
+            pendingReports.remove();
+        }
+    }
+
+    private List<Generation> generateParallel(List<TypeElement> entities) {
+        if (pool == null) {
+            pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        List<ForkJoinTask<Generation>> tasks = new ArrayList<>();
+        for (TypeElement entity : entities) {
+            tasks.add(pool.submit(() -> generate(entity)));
+        }
+        return tasks.stream().map(ForkJoinTask::join).toList();
+    }
+
+    // Builder diagnostics are buffered per entity and printed with its writes (the Messager is not thread-safe either)
+    private void warn(String message, Element element) {
+        List<Report> reports = pendingReports.get();
+        if (reports != null) {
+            reports.add(new Report(Diagnostic.Kind.WARNING, message, element));
+        } else {
+            messager.printMessage(Diagnostic.Kind.WARNING, message, element);
+        }
+    }
+
+    // Everything the builders need about an entity, resolved in a single pass over its fields. Fields inherited from
+    // @MappedSuperclass (or entity) superclasses come first, with types resolved against the entity (generic ids).
+    // Types are held as JavaPoet names, converted from the TypeMirrors here, so the builders never touch javac's types.
+    private record EntityModel(TypeElement element, ClassName className, String packageName, String entityName,
+                               List<VariableElement> fields, Map<VariableElement, TypeName> types,
+                               Optional<VariableElement> idField, Optional<VariableElement> versionField,
+                               Optional<VariableElement> concurrencyField, Optional<VariableElement> lastModifiedField,
+                               List<VariableElement> toOne,
+                               Map<VariableElement, TypeElement> related, Set<VariableElement> toMany,
+                               Set<VariableElement> collections, Set<VariableElement> transients,
+                               boolean generatedId, Set<VariableElement> enums) {
+
+        String idName() {
+            return idField.map(f -> f.getSimpleName().toString()).orElse("id");
+        }
+
+        TypeName idType() {
+            return idField.map(this::typeOf).orElse(ClassName.get(Long.class));
+        }
+
+        TypeName typeOf(VariableElement field) {
+            return types.get(field);
+        }
+
+        String packageFor(String suffix) {
+            return replaceLastPackageSegment(packageName, suffix);
+        }
+    }
+
+    private EntityModel model(TypeElement entity) {
+        EntityModel model = models.get(entity);
+        if (model == null) {
+            if (Thread.currentThread() != compilerThread) {
+                throw new IllegalStateException(entity.getSimpleName() + " was not snapshotted on the compiler thread");
+            }
+            model = buildModel(entity);
+            models.put(entity, model);
+        }
+        return model;
+    }
+
+    private EntityModel buildModel(TypeElement entity) {
+        List<TypeElement> hierarchy = new ArrayList<>();
+        for (TypeElement type = entity; type != null; type = superclassOf(type)) {
+            if (type == entity || hasAnnotation(type, superclassAnnotations)) {
+                hierarchy.add(0, type);
+            }
+        }
+
+        DeclaredType declared = (DeclaredType) entity.asType();
+        List<VariableElement> fields = new ArrayList<>();
+        Map<VariableElement, TypeName> types = new HashMap<>();
+        VariableElement id = null;
+        VariableElement version = null;
+        VariableElement lastModified = null;
+        List<VariableElement> toOne = new ArrayList<>();
+        Map<VariableElement, TypeElement> related = new HashMap<>();
+        Set<VariableElement> toMany = new HashSet<>();
+        Set<VariableElement> collections = new HashSet<>();
+        Set<VariableElement> transients = new HashSet<>();
+        Set<VariableElement> enums = new HashSet<>();
+        boolean generatedId = false;
+        for (TypeElement type : hierarchy) {
+            for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+                if (field.getModifiers().contains(Modifier.STATIC)) continue;
+                TypeMirror fieldType = typeUtils.asMemberOf(declared, field);
+                fields.add(field);
+                types.put(field, TypeName.get(fieldType));
+                for (AnnotationMirror am : field.getAnnotationMirrors()) {
+                    Element annotation = am.getAnnotationType().asElement();
+                    if (idAnnotations.contains(annotation) && id == null) id = field;
+                    else if (versionAnnotations.contains(annotation) && version == null) version = field;
+                    else if (lastModifiedAnnotations.contains(annotation) && lastModified == null) lastModified = field;
+                    else if (toOneAnnotations.contains(annotation)) toOne.add(field);
+                    else if (toManyAnnotations.contains(annotation)) toMany.add(field);
+                    else if (transientAnnotations.contains(annotation)) transients.add(field);
+                    else if (generatedValueAnnotations.contains(annotation)) generatedId = true;
+                }
+                if (toOne.contains(field) && fieldType.getKind() == TypeKind.DECLARED) {
+                    related.put(field, (TypeElement) typeUtils.asElement(fieldType));
+                }
+                if (field.getModifiers().contains(Modifier.TRANSIENT)) transients.add(field);
+                if (fieldType.getKind() == TypeKind.DECLARED
+                        && ((DeclaredType) fieldType).asElement().getKind() == ElementKind.ENUM) {
+                    enums.add(field);
+                }
+                if (fieldType.getKind() == TypeKind.DECLARED && typeUtils.isAssignable(typeUtils.erasure(fieldType), collectionType)) {
+                    collections.add(field);
+                }
+            }
+        }
+
+        // ETag source: the @Version field, otherwise a last-modified timestamp
+        Optional<VariableElement> concurrency = Optional.ofNullable(version != null ? version : lastModified);
+        return new EntityModel(entity, ClassName.get(entity), elementUtils.getPackageOf(entity).getQualifiedName().toString(), entityName(entity),
+                fields, types, Optional.ofNullable(id), Optional.ofNullable(version), concurrency, Optional.ofNullable(lastModified),
+                toOne, related, toMany, collections, transients, generatedId, enums);
+    }
+
+    private TypeElement superclassOf(TypeElement type) {
+        TypeMirror superclass = type.getSuperclass();
+        return superclass.getKind() == TypeKind.DECLARED ? (TypeElement) typeUtils.asElement(superclass) : null;
+    }
+
+    // Builds every type of an entity in write order; pure JavaPoet work over the snapshotted model, see snapshot()
+    private List<Output> generateForEntity(TypeElement entity) {
         String entitySimple = entity.getSimpleName().toString();
-        String entityPackage = elementUtils.getPackageOf(entity).getQualifiedName().toString();
+        List<Output> outputs = new ArrayList<>();
 
         // DTO
         TypeSpec dto = buildDto(entity, entitySimple);
-        JavaFile.builder(replaceLastPackageSegment(entityPackage, BASE_PACKAGE_SUFFIX_DTO), dto)
-                .build()
-                .writeTo(processingEnv.getFiler());
+        outputs.add(new Output(BASE_PACKAGE_SUFFIX_DTO, dto));
+
+        // PATCH body with boxed properties: an absent primitive must not arrive as 0/false
+        if (!patchDto(entity).simpleName().equals(dto.name)) {
+            outputs.add(new Output(BASE_PACKAGE_SUFFIX_DTO, buildPatchDto(entity, entitySimple)));
+        }
+
+        // DTO variant with the expanded relations
+        if (!expandable(entity).isEmpty()) {
+            outputs.add(new Output(BASE_PACKAGE_SUFFIX_DTO, buildExpandedDto(entity, entitySimple)));
+        }
+
+        // DTO variant carrying only the ?fields= columns
+        if (!sparse(entity).isEmpty()) {
+            outputs.add(new Output(BASE_PACKAGE_SUFFIX_DTO, buildPartialDto(entity, entitySimple)));
+        }
+
+        // Query-string filter of the list endpoint
+        if (!filterable(entity).isEmpty()) {
+            outputs.add(new Output(BASE_PACKAGE_SUFFIX_DTO, buildFilter(entity, entitySimple)));
+        }
+
+        // Page of the change feed
+        if (changeFeed(entity).isPresent()) {
+            outputs.add(new Output(BASE_PACKAGE_SUFFIX_DTO, buildChanges(entity, entitySimple)));
+        } else if (changes && findIdField(entity).isPresent()) {
+            warn("Entity " + entitySimple + " has no @LastModifiedDate/@UpdateTimestamp field of type Instant, LocalDateTime,"
+                    + " OffsetDateTime or ZonedDateTime (or its @Id type is not supported); skipping /changes."
+                    + " @Version counts per row and cannot order changes across rows.", entity);
+        }
+
+        // Batch item result
+        TypeSpec batchResult = buildBatchResult(entity, entitySimple);
+        outputs.add(new Output(BASE_PACKAGE_SUFFIX_DTO, batchResult));
+
+        // Generated JSON codec
+        if (jsonCodecs && !dtoFields(entity).isEmpty()) {
+            outputs.add(new Output(BASE_PACKAGE_SUFFIX_DTO, buildJsonModule(entity, entitySimple)));
+        }
 
         // Mapper
         TypeSpec mapper = buildMapper(entity, entitySimple);
-        JavaFile.builder(replaceLastPackageSegment(entityPackage, BASE_PACKAGE_SUFFIX_MAPPER), mapper)
-                .build()
-                .writeTo(processingEnv.getFiler());
+        outputs.add(new Output(BASE_PACKAGE_SUFFIX_MAPPER, mapper));
+
+        // Mapper timing decorator
+        if (metrics) {
+            TypeSpec mapperMetrics = buildMapperMetrics(entity, entitySimple, mapper);
+            outputs.add(new Output(BASE_PACKAGE_SUFFIX_MAPPER, mapperMetrics));
+        }
+
+        if (target.equals(TARGET_REACTIVE)) {
+            generateReactive(entity, entitySimple, outputs);
+            return outputs;
+        }
 
         // Repository
         TypeSpec repository = buildRepository(entity, entitySimple);
-        JavaFile.builder(replaceLastPackageSegment(entityPackage, BASE_PACKAGE_SUFFIX_REPO), repository)
-                .build()
-                .writeTo(processingEnv.getFiler());
+        outputs.add(new Output(BASE_PACKAGE_SUFFIX_REPO, repository));
 
         // Service
         TypeSpec service = buildService(entity, entitySimple);
-        JavaFile.builder(replaceLastPackageSegment(entityPackage, BASE_PACKAGE_SUFFIX_SERVICE), service)
-                .build()
-                .writeTo(processingEnv.getFiler());
+        outputs.add(new Output(BASE_PACKAGE_SUFFIX_SERVICE, service));
+
+        // Read cache
+        if (isCached(entity)) {
+            TypeSpec cache = buildCache(entity, entitySimple);
+            outputs.add(new Output(BASE_PACKAGE_SUFFIX_SERVICE, cache));
+        }
+
+        // Concurrency limits of the endpoints
+        if (bulkhead) {
+            outputs.add(new Output(BASE_PACKAGE_SUFFIX_CONTROLLER, buildBulkhead(entity, entitySimple)));
+        }
 
         // Controller
         TypeSpec controller = buildController(entity, entitySimple);
-        JavaFile.builder(replaceLastPackageSegment(entityPackage, BASE_PACKAGE_SUFFIX_CONTROLLER), controller)
-                .build()
-                .writeTo(processingEnv.getFiler());
+        outputs.add(new Output(BASE_PACKAGE_SUFFIX_CONTROLLER, controller));
+
+        // Runtime benchmarks (test sources, written to benchmarksDir outside the Filer, see writeFile)
+        if (benchmarksDir != null && findIdField(entity).isPresent()) {
+            outputs.add(new Output(BASE_PACKAGE_SUFFIX_BENCHMARK, buildBenchmark(entity, entitySimple)));
+            outputs.add(new Output(BASE_PACKAGE_SUFFIX_BENCHMARK, buildThroughputTest(entity, entitySimple)));
+        }
+        return outputs;
+    }
+
+    // The entity is the single originating element (Gradle isolating mode): related entities and mapped superclasses
+    // are reachable from its source, so Gradle reprocesses it when they change.
+    private void write(TypeElement entity, String suffix, TypeSpec spec) throws IOException {
+        JavaFile file = JavaFile.builder(model(entity).packageFor(suffix), spec.toBuilder().addOriginatingElement(entity).build())
+                .build();
+        writeFile(file, suffix.equals(BASE_PACKAGE_SUFFIX_BENCHMARK));
+    }
+
+    // rendered once; a benchmark file on disk is only rewritten when its content changes, so the test build that
+    // compiles it does not see a new timestamp on every run
+    private void writeFile(JavaFile file, boolean testSource) throws IOException {
+        String name = file.packageName.isEmpty() ? file.typeSpec.name : file.packageName + "." + file.typeSpec.name;
+        String source = file.toString();
+        if (testSource) {
+            Path path = benchmarksDir.resolve(file.packageName.replace('.', '/')).resolve(file.typeSpec.name + ".java");
+            if (!Files.exists(path) || !Files.readString(path).equals(source)) {
+                Files.createDirectories(path.getParent());
+                Files.writeString(path, source);
+            }
+            return;
+        }
+        JavaFileObject target = processingEnv.getFiler()
+                .createSourceFile(name, file.typeSpec.originatingElements.toArray(new Element[0]));
+        try (Writer writer = target.openWriter()) {
+            writer.write(source);
+        }
+    }
+
+    // WebFlux + R2DBC: same DTO, batch result and mapper, reactive repository/service/controller
+    private void generateReactive(TypeElement entity, String entitySimple, List<Output> outputs) {
+        TypeSpec repository = buildReactiveRepository(entity, entitySimple);
+        outputs.add(new Output(BASE_PACKAGE_SUFFIX_REPO, repository));
+
+        TypeSpec service = buildReactiveService(entity, entitySimple);
+        outputs.add(new Output(BASE_PACKAGE_SUFFIX_SERVICE, service));
+
+        TypeSpec controller = buildReactiveController(entity, entitySimple);
+        outputs.add(new Output(BASE_PACKAGE_SUFFIX_CONTROLLER, controller));
+    }
+
+    // R2DBC mapping checks; they read annotations from javac, so they run with the snapshot on the compiler thread
+    private void validateReactive(TypeElement entity) {
+        Optional<VariableElement> id = findIdField(entity);
+        if (id.isPresent() && !hasAnnotation(id.get(), springDataIdAnnotations)) {
+            messager.printMessage(Diagnostic.Kind.WARNING,
+                    "R2DBC only recognises @org.springframework.data.annotation.Id; add it to the id of " + entity.getSimpleName(), entity);
+        }
+        for (VariableElement field : model(entity).toOne()) {
+            messager.printMessage(Diagnostic.Kind.WARNING,
+                    "R2DBC does not map relations; '" + field.getSimpleName() + "' must be @Transient for Spring Data", field);
+        }
     }
 
     private TypeSpec buildDto(TypeElement entity, String entitySimple) {
@@ -134,61 +767,17 @@ public class CrudScaffoldingProcessor extends AbstractProcessor {
                                 "NON_NULL")
                         .build());
 
-        List<FieldSpec> fields = new ArrayList<>();
-
-        for (VariableElement field : ElementFilter.fieldsIn(entity.getEnclosedElements())) {
-            if (field.getModifiers().contains(Modifier.STATIC)) continue;
-
-            // Skip OneToMany / ManyToMany collections
-            if (isCollection(field) &&
-                    (hasAnnotation(field, "javax.persistence.OneToMany") ||
-                            hasAnnotation(field, "jakarta.persistence.OneToMany") ||
-                            hasAnnotation(field, "javax.persistence.ManyToMany") ||
-                            hasAnnotation(field, "jakarta.persistence.ManyToMany"))) {
-                continue;
-            }
-
-            String fieldName;
-            TypeName fieldType;
+        List<DtoField> fields = dtoFields(entity);
 
-            if (hasAnnotation(field, "javax.persistence.ManyToOne") ||
-                    hasAnnotation(field, "jakarta.persistence.ManyToOne") ||
-                    hasAnnotation(field, "javax.persistence.OneToOne") ||
-                    hasAnnotation(field, "jakarta.persistence.OneToOne")) {
-                // only referenced ID, avoid double "Id"
-                TypeMirror referenced = field.asType();
-                Element referencedEl = typeUtils.asElement(referenced);
-                if (referencedEl instanceof TypeElement) {
-                    Optional<VariableElement> idField = findIdField((TypeElement) referencedEl);
-                    if (idField.isPresent()) {
-                        fieldType = TypeName.get(idField.get().asType());
-                        String base = field.getSimpleName().toString();
-                        fieldName = base.endsWith("Id") ? base : base + "Id";
-                    } else {
-                        continue;
-                    }
-                } else {
-                    continue;
-                }
-            } else if (hasAnnotation(field, "javax.persistence.ManyToMany") ||
-                    hasAnnotation(field, "jakarta.persistence.ManyToMany") ||
-                    hasAnnotation(field, "javax.persistence.OneToMany") ||
-                    hasAnnotation(field, "jakarta.persistence.OneToMany")) {
-                continue; // skip
-            } else {
-                fieldType = TypeName.get(field.asType());
-                fieldName = field.getSimpleName().toString();
-            }
+        for (DtoField field : fields) {
+            String fieldName = field.name();
+            TypeName fieldType = field.type();
 
             FieldSpec fs = FieldSpec.builder(fieldType, fieldName, Modifier.PRIVATE).build();
-            fields.add(fs);
             builder.addField(fs);
 
             // getter
-            String getterName = (fieldType.equals(TypeName.BOOLEAN) || fieldType.equals(ClassName.get(Boolean.class)))
-                    ? "is" + capitalize(fieldName)
-                    : "get" + capitalize(fieldName);
-            MethodSpec getter = MethodSpec.methodBuilder(getterName)
+            MethodSpec getter = MethodSpec.methodBuilder(getterName(fieldName, fieldType))
                     .addModifiers(Modifier.PUBLIC)
                     .returns(fieldType)
                     .addStatement("return this.$N", fieldName)
@@ -204,360 +793,3853 @@ public class CrudScaffoldingProcessor extends AbstractProcessor {
             builder.addMethod(setter);
         }
 
+        if (!fields.isEmpty()) {
+            // no-args for Jackson/MapStruct, all-args for JPQL constructor expressions
+            builder.addMethod(MethodSpec.constructorBuilder().addModifiers(Modifier.PUBLIC).build());
+            MethodSpec.Builder allArgs = MethodSpec.constructorBuilder().addModifiers(Modifier.PUBLIC);
+            for (DtoField field : fields) {
+                allArgs.addParameter(field.type(), field.name())
+                        .addStatement("this.$N = $N", field.name(), field.name());
+            }
+            builder.addMethod(allArgs.build());
+        }
+
         return builder.build();
     }
 
-    private String capitalize(String s) {
-        if (s == null || s.isEmpty()) return s;
-        return Character.toUpperCase(s.charAt(0)) + s.substring(1);
+    // XPatchDTO: the DTO properties boxed, so the IGNORE strategy of the patch mapping skips every property the
+    // client did not send; only generated when the DTO has primitive properties
+    private ClassName patchDto(TypeElement entity) {
+        String dtoPkg = model(entity).packageFor(BASE_PACKAGE_SUFFIX_DTO);
+        String entitySimple = entity.getSimpleName().toString();
+        boolean primitives = dtoFields(entity).stream().anyMatch(field -> field.type().isPrimitive());
+        return ClassName.get(dtoPkg, entitySimple + (primitives ? "PatchDTO" : "DTO"));
     }
-private TypeSpec buildMapper(TypeElement entity, String entitySimple) {
-    String dtoName = entitySimple + "DTO";
-    String mapperName = entitySimple + "Mapper";
-    String entityPkg = elementUtils.getPackageOf(entity).getQualifiedName().toString();
 
-    ClassName entityClass = ClassName.get(entityPkg, entitySimple);
-    ClassName dtoClass = ClassName.get(replaceLastPackageSegment(entityPkg, BASE_PACKAGE_SUFFIX_DTO), dtoName);
+    private TypeSpec buildPatchDto(TypeElement entity, String entitySimple) {
+        TypeSpec.Builder builder = TypeSpec.classBuilder(entitySimple + "PatchDTO")
+                .addModifiers(Modifier.PUBLIC);
+        for (DtoField field : dtoFields(entity)) {
+            String name = field.name();
+            TypeName type = field.type().box();
+            builder.addField(FieldSpec.builder(type, name, Modifier.PRIVATE).build())
+                    .addMethod(MethodSpec.methodBuilder(getterName(name, type))
+                            .addModifiers(Modifier.PUBLIC)
+                            .returns(type)
+                            .addStatement("return this.$N", name)
+                            .build())
+                    .addMethod(MethodSpec.methodBuilder("set" + capitalize(name))
+                            .addModifiers(Modifier.PUBLIC)
+                            .addParameter(type, name)
+                            .addStatement("this.$N = $N", name, name)
+                            .build());
+        }
+        return builder.build();
+    }
 
-    AnnotationSpec mapperAnno = AnnotationSpec.builder(ClassName.get("org.mapstruct", "Mapper"))
-            .addMember("componentModel", "$S", "spring")
-            .addMember("unmappedTargetPolicy", "$T.IGNORE", ClassName.get("org.mapstruct", "ReportingPolicy"))
-            .build();
+    // XExpandedDTO: the flat DTO plus the related DTOs requested with ?expand= (the others stay null and are omitted)
+    private TypeSpec buildExpandedDto(TypeElement entity, String entitySimple) {
+        String dtoPkg = model(entity).packageFor(BASE_PACKAGE_SUFFIX_DTO);
+        TypeSpec.Builder builder = TypeSpec.classBuilder(entitySimple + "ExpandedDTO")
+                .addModifiers(Modifier.PUBLIC)
+                .superclass(ClassName.get(dtoPkg, entitySimple + "DTO"));
+        for (VariableElement field : expandable(entity)) {
+            TypeElement related = model(entity).related().get(field);
+            String name = field.getSimpleName().toString();
+            ClassName type = ClassName.get(model(related).packageFor(BASE_PACKAGE_SUFFIX_DTO), related.getSimpleName() + "DTO");
+            builder.addField(FieldSpec.builder(type, name, Modifier.PRIVATE).build())
+                    .addMethod(MethodSpec.methodBuilder(getterName(name, type))
+                            .addModifiers(Modifier.PUBLIC)
+                            .returns(type)
+                            .addStatement("return this.$N", name)
+                            .build())
+                    .addMethod(MethodSpec.methodBuilder("set" + capitalize(name))
+                            .addModifiers(Modifier.PUBLIC)
+                            .addParameter(type, name)
+                            .addStatement("this.$N = $N", name, name)
+                            .build());
+        }
+        return builder.build();
+    }
 
-    TypeSpec.Builder builder = TypeSpec.interfaceBuilder(mapperName)
-            .addAnnotation(mapperAnno)
-            .addModifiers(Modifier.PUBLIC);
+    // XPartialDTO: an XDTO read with ?fields=; its serializer writes the requested properties (nulls included) and nothing
+    // else, so primitive and unselected properties do not show up with default values
+    private TypeSpec buildPartialDto(TypeElement entity, String entitySimple) {
+        String dtoPkg = model(entity).packageFor(BASE_PACKAGE_SUFFIX_DTO);
+        ClassName partialClass = ClassName.get(dtoPkg, entitySimple + "PartialDTO");
+        TypeName stringSet = ParameterizedTypeName.get(ClassName.get(Set.class), ClassName.get(String.class));
+        String jackson = "com.fasterxml.jackson";
 
-    // ===== toDTO =====
-    MethodSpec.Builder toDto = MethodSpec.methodBuilder("to" + entitySimple + "DTO")
-            .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
-            .returns(dtoClass)
-            .addParameter(entityClass, decap(entitySimple));
+        MethodSpec.Builder serialize = MethodSpec.methodBuilder("serialize")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(partialClass, "value")
+                .addParameter(ClassName.get(jackson + ".core", "JsonGenerator"), "gen")
+                .addParameter(ClassName.get(jackson + ".databind", "SerializerProvider"), "provider")
+                .addException(IOException.class)
+                .addStatement("gen.writeStartObject(value)");
+        for (DtoField field : sparse(entity)) {
+            serialize.beginControlFlow("if (value.fields.contains($S))", field.name())
+                    .addStatement("provider.defaultSerializeField($S, value.$N(), gen)", field.name(), getterName(field.name(), field.type()))
+                    .endControlFlow();
+        }
+        serialize.addStatement("gen.writeEndObject()");
+        TypeSpec serializer = TypeSpec.classBuilder("Serializer")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .superclass(ParameterizedTypeName.get(ClassName.get(jackson + ".databind.ser.std", "StdSerializer"), partialClass))
+                .addField(serialVersionUid())
+                .addMethod(MethodSpec.constructorBuilder()
+                        .addModifiers(Modifier.PUBLIC)
+                        .addStatement("super($T.class)", partialClass)
+                        .build())
+                .addMethod(serialize.build())
+                .build();
 
-    for (VariableElement field : ElementFilter.fieldsIn(entity.getEnclosedElements())) {
-        if (hasAnnotation(field, "javax.persistence.ManyToOne") ||
-            hasAnnotation(field, "jakarta.persistence.ManyToOne") ||
-            hasAnnotation(field, "javax.persistence.OneToOne") ||
-            hasAnnotation(field, "jakarta.persistence.OneToOne")) {
+        return TypeSpec.classBuilder(partialClass)
+                .addModifiers(Modifier.PUBLIC)
+                .superclass(ClassName.get(dtoPkg, entitySimple + "DTO"))
+                .addAnnotation(AnnotationSpec.builder(ClassName.get(jackson + ".databind.annotation", "JsonSerialize"))
+                        .addMember("using", "$T.class", partialClass.nestedClass("Serializer"))
+                        .build())
+                .addField(FieldSpec.builder(stringSet, "fields", Modifier.PRIVATE, Modifier.FINAL).build())
+                .addMethod(MethodSpec.constructorBuilder()
+                        .addModifiers(Modifier.PUBLIC)
+                        .addParameter(stringSet, "fields")
+                        .addStatement("this.fields = fields")
+                        .build())
+                .addType(serializer)
+                .build();
+    }
 
-            String fieldName = field.getSimpleName().toString();
-            String target = fieldName.endsWith("Id") ? fieldName : fieldName + "Id";
-            String source = fieldName + ".id";
-            toDto.addAnnotation(AnnotationSpec.builder(ClassName.get("org.mapstruct", "Mapping"))
-                    .addMember("source", "$S", source)
-                    .addMember("target", "$S", target)
+    // Jackson module with a hand-written serializer/deserializer for XDTO: no bean introspection, pre-encoded property
+    // names, nulls skipped inline. Scalars are read/written directly; any other type goes through the ObjectMapper's own
+    // (de)serializers, resolved once, so date formats and registered modules still apply.
+    private TypeSpec buildJsonModule(TypeElement entity, String entitySimple) {
+        String dtoName = entitySimple + "DTO";
+        ClassName dtoClass = ClassName.get(model(entity).packageFor(BASE_PACKAGE_SUFFIX_DTO), dtoName);
+        String jackson = "com.fasterxml.jackson";
+        ClassName jsonGenerator = ClassName.get(jackson + ".core", "JsonGenerator");
+        ClassName jsonParser = ClassName.get(jackson + ".core", "JsonParser");
+        ClassName jsonToken = ClassName.get(jackson + ".core", "JsonToken");
+        ClassName serializedString = ClassName.get(jackson + ".core.io", "SerializedString");
+        ClassName context = ClassName.get(jackson + ".databind", "DeserializationContext");
+        ClassName jsonDeserializer = ClassName.get(jackson + ".databind", "JsonDeserializer");
+        TypeName objectDeserializer = ParameterizedTypeName.get(jsonDeserializer, ClassName.get(Object.class));
+        List<DtoField> fields = dtoFields(entity);
+
+        // ===== serializer =====
+        TypeSpec.Builder serializer = TypeSpec.classBuilder("Serializer")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .superclass(ParameterizedTypeName.get(ClassName.get(jackson + ".databind.ser.std", "StdSerializer"), dtoClass))
+                .addField(serialVersionUid())
+                .addMethod(MethodSpec.constructorBuilder()
+                        .addModifiers(Modifier.PUBLIC)
+                        .addStatement("super($T.class)", dtoClass)
+                        .build());
+        MethodSpec.Builder serialize = MethodSpec.methodBuilder("serialize")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(dtoClass, "value")
+                .addParameter(jsonGenerator, "gen")
+                .addParameter(ClassName.get(jackson + ".databind", "SerializerProvider"), "provider")
+                .addException(IOException.class)
+                .addStatement("gen.writeStartObject(value)");
+        for (DtoField field : fields) {
+            String constant = field.name().replaceAll("([a-z0-9])([A-Z])", "$1_$2").toUpperCase();
+            serializer.addField(FieldSpec.builder(serializedString, constant, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                    .initializer("new $T($S)", serializedString, field.name())
                     .build());
+            String getter = "value." + getterName(field.name(), field.type()) + "()";
+            TypeName boxed = field.type().box();
+            String write;
+            if (boxed.equals(ClassName.get(String.class))) write = "gen.writeString($L)";
+            else if (boxed.equals(ClassName.get(Boolean.class))) write = "gen.writeBoolean($L)";
+            else if (Set.of(ClassName.get(Integer.class), ClassName.get(Long.class), ClassName.get(Short.class),
+                    ClassName.get(Double.class), ClassName.get(Float.class)).contains(boxed)) write = "gen.writeNumber($L)";
+            else write = "provider.defaultSerializeValue($L, gen)";
+            if (!field.type().isPrimitive()) serialize.beginControlFlow("if ($L != null)", getter);
+            serialize.addStatement("gen.writeFieldName($N)", constant).addStatement(write, getter);
+            if (!field.type().isPrimitive()) serialize.endControlFlow();
         }
-    }
-    builder.addMethod(toDto.build());
+        serializer.addMethod(serialize.addStatement("gen.writeEndObject()").build());
 
-    // ===== toEntity =====
-    MethodSpec.Builder toEntity = MethodSpec.methodBuilder("to" + entitySimple)
-            .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
-            .returns(entityClass)
-            .addParameter(dtoClass, decap(dtoName));
+        // ===== deserializer =====
+        TypeSpec.Builder deserializer = TypeSpec.classBuilder("Deserializer")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .superclass(ParameterizedTypeName.get(ClassName.get(jackson + ".databind.deser.std", "StdDeserializer"), dtoClass))
+                .addSuperinterface(ClassName.get(jackson + ".databind.deser", "ResolvableDeserializer"))
+                .addField(serialVersionUid())
+                .addMethod(MethodSpec.constructorBuilder()
+                        .addModifiers(Modifier.PUBLIC)
+                        .addStatement("super($T.class)", dtoClass)
+                        .build());
+        MethodSpec.Builder resolve = MethodSpec.methodBuilder("resolve")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(context, "ctxt")
+                .addException(ClassName.get(jackson + ".databind", "JsonMappingException"));
+        MethodSpec.Builder deserialize = MethodSpec.methodBuilder("deserialize")
+                .addAnnotation(Override.class)
+                .addAnnotation(AnnotationSpec.builder(SuppressWarnings.class).addMember("value", "$S", "unchecked").build())
+                .addModifiers(Modifier.PUBLIC)
+                .returns(dtoClass)
+                .addParameter(jsonParser, "p")
+                .addParameter(context, "ctxt")
+                .addException(IOException.class)
+                .addStatement("$T token = p.currentToken()", jsonToken)
+                .beginControlFlow("if (token == $T.START_OBJECT)", jsonToken)
+                .addStatement("token = p.nextToken()")
+                .nextControlFlow("else if (token != $T.FIELD_NAME && token != $T.END_OBJECT)", jsonToken, jsonToken)
+                .addStatement("return ($T) ctxt.handleUnexpectedToken($T.class, p)", dtoClass, dtoClass)
+                .endControlFlow()
+                .addStatement("$T dto = new $T()", dtoClass, dtoClass)
+                .beginControlFlow("for (; token == $T.FIELD_NAME; token = p.nextToken())", jsonToken)
+                .addStatement("String name = p.currentName()")
+                .addStatement("p.nextToken()")
+                .beginControlFlow("switch (name)");
+        for (DtoField field : fields) {
+            TypeName type = field.type();
+            CodeBlock read;
+            if (type.equals(TypeName.INT)) read = CodeBlock.of("_parseIntPrimitive(p, ctxt)");
+            else if (type.equals(TypeName.LONG)) read = CodeBlock.of("_parseLongPrimitive(p, ctxt)");
+            else if (type.equals(TypeName.BOOLEAN)) read = CodeBlock.of("_parseBooleanPrimitive(p, ctxt)");
+            else if (type.equals(TypeName.DOUBLE)) read = CodeBlock.of("_parseDoublePrimitive(p, ctxt)");
+            else if (type.equals(TypeName.FLOAT)) read = CodeBlock.of("_parseFloatPrimitive(p, ctxt)");
+            else if (type.equals(TypeName.SHORT)) read = CodeBlock.of("_parseShortPrimitive(p, ctxt)");
+            else if (type.equals(TypeName.BYTE)) read = CodeBlock.of("_parseBytePrimitive(p, ctxt)");
+            else if (type.equals(ClassName.get(String.class))) read = CodeBlock.of("_parseString(p, ctxt, this)");
+            else if (type.equals(ClassName.get(Integer.class))) read = CodeBlock.of("_parseInteger(p, ctxt, $T.class)", Integer.class);
+            else if (type.equals(ClassName.get(Long.class))) read = CodeBlock.of("_parseLong(p, ctxt, $T.class)", Long.class);
+            else if (type.equals(ClassName.get(Boolean.class))) read = CodeBlock.of("_parseBoolean(p, ctxt, $T.class)", Boolean.class);
+            else read = null;
 
-    // Per evitare helper duplicati per lo stesso tipo relazione
-    Set<String> helperGeneratedFor = new HashSet<>();
+            deserialize.addCode("case $S:\n$>", field.name());
+            String setter = "dto.set" + capitalize(field.name());
+            if (read != null) {
+                deserialize.addStatement(type.isPrimitive() ? "$L($L)" : "$L(p.hasToken($T.VALUE_NULL) ? null : $L)",
+                        type.isPrimitive() ? new Object[]{setter, read} : new Object[]{setter, jsonToken, read});
+            } else {
+                String deser = field.name() + "Deserializer";
+                deserializer.addField(objectDeserializer, deser, Modifier.PRIVATE);
+                CodeBlock javaType = type instanceof ParameterizedTypeName
+                        ? CodeBlock.of("ctxt.getTypeFactory().constructType(new $T<$T>() {})",
+                                ClassName.get(jackson + ".core.type", "TypeReference"), type)
+                        : CodeBlock.of("ctxt.constructType($T.class)", type);
+                resolve.addStatement("$N = ctxt.findContextualValueDeserializer($L, null)", deser, javaType);
+                if (type.isPrimitive()) {
+                    deserialize.addStatement("$L(($T) $N.deserialize(p, ctxt))", setter, type.box(), deser);
+                } else {
+                    deserialize.addStatement("$L(($T) (p.hasToken($T.VALUE_NULL) ? $N.getNullValue(ctxt) : $N.deserialize(p, ctxt)))",
+                            setter, type, jsonToken, deser, deser);
+                }
+            }
+            deserialize.addStatement("break").addCode("$<");
+        }
+        deserialize.addCode("default:\n$>")
+                .addStatement("handleUnknownProperty(p, ctxt, dto, name)")
+                .addCode("$<")
+                .endControlFlow()
+                .endControlFlow()
+                .addStatement("return dto");
+        deserializer.addMethod(resolve.build()).addMethod(deserialize.build());
 
-    for (VariableElement field : ElementFilter.fieldsIn(entity.getEnclosedElements())) {
-        boolean isRelation =
-                hasAnnotation(field, "javax.persistence.ManyToOne") ||
-                hasAnnotation(field, "jakarta.persistence.ManyToOne") ||
-                hasAnnotation(field, "javax.persistence.OneToOne") ||
-                hasAnnotation(field, "jakarta.persistence.OneToOne");
+        String moduleName = dtoName + "JsonModule";
+        ClassName javaType = ClassName.get(jackson + ".databind", "JavaType");
+        // SimpleModule would also hand the serializer to subclasses (XExpandedDTO), dropping their extra properties
+        TypeSpec exactType = TypeSpec.anonymousClassBuilder("")
+                .superclass(ClassName.get(jackson + ".databind.ser", "Serializers", "Base"))
+                .addMethod(MethodSpec.methodBuilder("findSerializer")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(ParameterizedTypeName.get(ClassName.get(jackson + ".databind", "JsonSerializer"), WildcardTypeName.subtypeOf(Object.class)))
+                        .addParameter(ClassName.get(jackson + ".databind", "SerializationConfig"), "config")
+                        .addParameter(javaType, "type")
+                        .addParameter(ClassName.get(jackson + ".databind", "BeanDescription"), "beanDesc")
+                        .addStatement("return type.hasRawClass($T.class) ? serializer : null", dtoClass)
+                        .build())
+                .build();
+        return TypeSpec.classBuilder(moduleName)
+                .addModifiers(Modifier.PUBLIC)
+                .superclass(ClassName.get(jackson + ".databind.module", "SimpleModule"))
+                // Spring Boot registers every Module bean on the auto-configured ObjectMapper (MVC, WebFlux, streaming)
+                .addAnnotation(ClassName.get("org.springframework.stereotype", "Component"))
+                .addField(serialVersionUid())
+                .addField(FieldSpec.builder(dtoClass.peerClass(moduleName).nestedClass("Serializer"), "serializer", Modifier.PRIVATE, Modifier.FINAL)
+                        .initializer("new Serializer()")
+                        .build())
+                .addMethod(MethodSpec.constructorBuilder()
+                        .addModifiers(Modifier.PUBLIC)
+                        .addStatement("super($S)", moduleName)
+                        .addStatement("addDeserializer($T.class, new Deserializer())", dtoClass)
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("setupModule")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .addParameter(ClassName.get(jackson + ".databind", "Module", "SetupContext"), "context")
+                        .addStatement("super.setupModule(context)")
+                        .addStatement("context.addSerializers($L)", exactType)
+                        .build())
+                .addType(serializer.build())
+                .addType(deserializer.build())
+                .build();
+    }
 
-        if (!isRelation) continue;
+    // Jackson serializers, deserializers and modules are Serializable: without it -Xlint:serial warns on the generated code
+    private static FieldSpec serialVersionUid() {
+        return FieldSpec.builder(TypeName.LONG, "serialVersionUID", Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .initializer("1L")
+                .build();
+    }
 
-        String fieldName = field.getSimpleName().toString();
-        String sourceIdName = fieldName.endsWith("Id") ? fieldName : fieldName + "Id";
+    // same accessor names as the generated DTO
+    private String getterName(String fieldName, TypeName type) {
+        return (type.equals(TypeName.BOOLEAN) || type.equals(ClassName.get(Boolean.class)) ? "is" : "get") + capitalize(fieldName);
+    }
 
-        // Mappiamo <campo>Id (DTO) -> <campo> (Entity)
-        toEntity.addAnnotation(AnnotationSpec.builder(ClassName.get("org.mapstruct", "Mapping"))
-                .addMember("target", "$S", fieldName)
-                .addMember("source", "$S", sourceIdName)
-                .build());
+    // springsmith.aot: one @Bean per generated component, built with its constructor instead of being found by classpath
+    // scanning and instantiated reflectively. Bean names and types are the ones scanning would register, so Spring
+    // replaces scanned definitions with these when the generated packages are still scanned.
+    private TypeSpec buildBeansConfiguration(List<Generation> generations, String configPkg) {
+        ClassName bean = ClassName.get("org.springframework.context.annotation", "Bean");
+        Set<ClassName> stereotypes = Set.of(
+                ClassName.get("org.springframework.stereotype", "Component"),
+                ClassName.get("org.springframework.stereotype", "Service"),
+                ClassName.get("org.springframework.web.bind.annotation", "RestController"));
+        TypeSpec.Builder builder = TypeSpec.classBuilder("SpringsmithBeansConfiguration")
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.context.annotation", "Configuration"))
+                        .addMember("proxyBeanMethods", "false")
+                        .build())
+                .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.context.annotation", "ImportRuntimeHints"))
+                        .addMember("value", "$T.class", ClassName.get(configPkg, "SpringsmithRuntimeHints"))
+                        .build());
+        List<CodeBlock> imports = new ArrayList<>();
+        if (!binaryFormats.isEmpty()) {
+            imports.add(CodeBlock.of("$T.class", ClassName.get(configPkg, "SpringsmithBinaryFormatsConfiguration")));
+        }
+        if (readReplica) {
+            imports.add(CodeBlock.of("$T.class", ClassName.get(configPkg, "SpringsmithRoutingDataSourceConfiguration")));
+        }
+        if (!imports.isEmpty()) {
+            builder.addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.context.annotation", "Import"))
+                    .addMember("value", imports.size() == 1 ? "$L" : "{$L}", CodeBlock.join(imports, ", "))
+                    .build());
+        }
 
-        // Genera helper: IdType -> RelatedEntity (una sola volta per tipo)
-        TypeElement relatedEl = (TypeElement) typeUtils.asElement(field.asType());
-        if (relatedEl != null) {
-            Optional<VariableElement> relatedIdField = findIdField(relatedEl);
+        for (Generation generation : generations) {
+            EntityModel model = model(generation.entity());
+            String entitySimple = generation.entity().getSimpleName().toString();
+            // MapStruct implementations (componentModel = "spring"); with metrics the impl is the @Primary decorator and
+            // XMapperImpl_ the qualified delegate
+            ClassName mapperImpl = ClassName.get(model.packageFor(BASE_PACKAGE_SUFFIX_MAPPER), entitySimple + "MapperImpl");
+            MethodSpec.Builder mapper = MethodSpec.methodBuilder(beanName(mapperImpl.simpleName()))
+                    .addModifiers(Modifier.PUBLIC)
+                    .addAnnotation(bean)
+                    .returns(mapperImpl)
+                    .addStatement("return new $T()", mapperImpl);
+            if (metrics) {
+                ClassName delegate = mapperImpl.peerClass(mapperImpl.simpleName() + "_");
+                builder.addMethod(MethodSpec.methodBuilder(beanName(delegate.simpleName()))
+                        .addModifiers(Modifier.PUBLIC)
+                        .addAnnotation(bean)
+                        .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.beans.factory.annotation", "Qualifier"))
+                                .addMember("value", "$S", "delegate")
+                                .build())
+                        .returns(delegate)
+                        .addStatement("return new $T()", delegate)
+                        .build());
+                mapper.addAnnotation(ClassName.get("org.springframework.context.annotation", "Primary"));
+            }
+            builder.addMethod(mapper.build());
+
+            for (Output output : generation.outputs()) {
+                TypeSpec spec = output.spec();
+                if (output.suffix().equals(BASE_PACKAGE_SUFFIX_BENCHMARK)
+                        || spec.annotations.stream().noneMatch(a -> stereotypes.contains(a.type))) continue;
+                ClassName type = ClassName.get(model.packageFor(output.suffix()), spec.name);
+                List<ParameterSpec> parameters = spec.methodSpecs.stream()
+                        .filter(MethodSpec::isConstructor)
+                        .findFirst()
+                        .map(c -> c.parameters)
+                        .orElse(List.of());
+                builder.addMethod(MethodSpec.methodBuilder(beanName(spec.name))
+                        .addModifiers(Modifier.PUBLIC)
+                        .addAnnotation(bean)
+                        .returns(type)
+                        .addParameters(parameters)
+                        .addStatement("return new $T($L)", type,
+                                CodeBlock.join(parameters.stream().map(p -> CodeBlock.of("$N", p)).toList(), ", "))
+                        .build());
+            }
+        }
+        return builder.build();
+    }
+
+    // default bean name of a scanned component (java.beans.Introspector#decapitalize)
+    private String beanName(String simpleName) {
+        if (simpleName.length() > 1 && Character.isUpperCase(simpleName.charAt(0)) && Character.isUpperCase(simpleName.charAt(1))) {
+            return simpleName;
+        }
+        return decap(simpleName);
+    }
+
+    // GraalVM/AOT reflection hints for the types Spring cannot infer from the bean signatures: DTO subclasses returned
+    // through XDTO (XExpandedDTO, XPartialDTO and its serializer), XDTO constructors called by the JPQL projections,
+    // filters bound by the data binder
+    private TypeSpec buildRuntimeHints(List<Generation> generations) {
+        ClassName memberCategory = ClassName.get("org.springframework.aot.hint", "MemberCategory");
+        MethodSpec.Builder register = MethodSpec.methodBuilder("registerHints")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(ClassName.get("org.springframework.aot.hint", "RuntimeHints"), "hints")
+                .addParameter(ClassLoader.class, "classLoader")
+                .addStatement("$T[] bean = {$T.INVOKE_PUBLIC_CONSTRUCTORS, $T.INVOKE_PUBLIC_METHODS, $T.DECLARED_FIELDS}",
+                        memberCategory, memberCategory, memberCategory, memberCategory);
+        for (Generation generation : generations) {
+            String dtoPkg = model(generation.entity()).packageFor(BASE_PACKAGE_SUFFIX_DTO);
+            for (Output output : generation.outputs()) {
+                TypeSpec spec = output.spec();
+                if (!output.suffix().equals(BASE_PACKAGE_SUFFIX_DTO) || !spec.annotations.stream()
+                        .allMatch(a -> a.type.toString().startsWith("com.fasterxml.jackson"))) continue;
+                ClassName type = ClassName.get(dtoPkg, spec.name);
+                register.addStatement("hints.reflection().registerType($T.class, bean)", type);
+                for (TypeSpec nested : spec.typeSpecs) {
+                    register.addStatement("hints.reflection().registerType($T.class, $T.INVOKE_PUBLIC_CONSTRUCTORS)",
+                            type.nestedClass(nested.name), memberCategory);
+                }
+            }
+        }
+        return TypeSpec.classBuilder("SpringsmithRuntimeHints")
+                .addModifiers(Modifier.PUBLIC)
+                .addSuperinterface(ClassName.get("org.springframework.aot.hint", "RuntimeHintsRegistrar"))
+                .addMethod(register.build())
+                .build();
+    }
+
+    // springsmith.readReplica: when springsmith.datasource.replica.url is set, the DataSource routes read-only
+    // transactions (every generated read) to the replica pool and everything else to spring.datasource. The lazy proxy
+    // defers the connection to the first statement, after the transaction manager has published the read-only flag.
+    private TypeSpec buildRoutingDataSourceConfiguration() {
+        ClassName dataSource = ClassName.get("javax.sql", "DataSource");
+        ClassName properties = ClassName.get("org.springframework.boot.autoconfigure.jdbc", "DataSourceProperties");
+        ClassName binder = ClassName.get("org.springframework.boot.context.properties.bind", "Binder");
+        ClassName bindable = ClassName.get("org.springframework.boot.context.properties.bind", "Bindable");
+        ClassName routing = ClassName.get("org.springframework.jdbc.datasource.lookup", "AbstractRoutingDataSource");
+
+        TypeSpec routingDataSource = TypeSpec.classBuilder("ReadOnlyRoutingDataSource")
+                .addModifiers(Modifier.STATIC)
+                .superclass(routing)
+                .addMethod(MethodSpec.methodBuilder("determineCurrentLookupKey")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PROTECTED)
+                        .returns(Object.class)
+                        .addStatement("return $T.isCurrentTransactionReadOnly() ? $S : $S",
+                                ClassName.get("org.springframework.transaction.support", "TransactionSynchronizationManager"),
+                                "replica", "primary")
+                        .build())
+                .build();
+
+        return TypeSpec.classBuilder("SpringsmithRoutingDataSourceConfiguration")
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.context.annotation", "Configuration"))
+                        .addMember("proxyBeanMethods", "false")
+                        .build())
+                .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.boot.autoconfigure.condition", "ConditionalOnProperty"))
+                        .addMember("prefix", "$S", "springsmith.datasource.replica")
+                        .addMember("name", "$S", "url")
+                        .build())
+                .addType(routingDataSource)
+                .addMethod(MethodSpec.methodBuilder("dataSource")
+                        .addModifiers(Modifier.PUBLIC)
+                        .addAnnotation(ClassName.get("org.springframework.context.annotation", "Bean"))
+                        .returns(dataSource)
+                        .addParameter(properties, "primaryProperties")
+                        .addParameter(ClassName.get("org.springframework.core.env", "Environment"), "environment")
+                        .addComment("same properties as Boot's own DataSource: spring.datasource.* and, for Hikari, spring.datasource.hikari.*")
+                        .addStatement("$T binder = $T.get(environment)", binder, binder)
+                        .addStatement("$T primary = primaryProperties.initializeDataSourceBuilder().build()", dataSource)
+                        .addStatement("binder.bind($S, $T.ofInstance(primary))", "spring.datasource.hikari", bindable)
+                        .addStatement("$T replicaProperties = binder.bind($S, $T.class).get()", properties, "springsmith.datasource.replica", properties)
+                        .addStatement("$T replica = replicaProperties.initializeDataSourceBuilder().build()", dataSource)
+                        .addStatement("binder.bind($S, $T.ofInstance(replica))", "springsmith.datasource.replica.hikari", bindable)
+                        .addStatement("ReadOnlyRoutingDataSource routing = new ReadOnlyRoutingDataSource()")
+                        .addStatement("routing.setTargetDataSources($T.<Object, Object>of($S, primary, $S, replica))", Map.class, "primary", "replica")
+                        .addStatement("routing.setDefaultTargetDataSource(primary)")
+                        .addStatement("routing.afterPropertiesSet()")
+                        .addStatement("return new $T(routing)", ClassName.get("org.springframework.jdbc.datasource", "LazyConnectionDataSourceProxy"))
+                        .build())
+                .build();
+    }
+
+    // CBOR/Smile message converters (servlet) or codecs (reactive) for the generated endpoints. The ObjectMappers come
+    // from Boot's Jackson2ObjectMapperBuilder, so spring.jackson.* settings and Module beans (jsonCodecs) apply to them
+    // as they do to JSON; a generated XDTOJsonModule writes the DTO fields in declaration order in every format.
+    private TypeSpec buildBinaryFormatsConfiguration() {
+        ClassName builderClass = ClassName.get("org.springframework.http.converter.json", "Jackson2ObjectMapperBuilder");
+        ClassName objectMapper = ClassName.get("com.fasterxml.jackson.databind", "ObjectMapper");
+        ClassName cborFactory = ClassName.get("com.fasterxml.jackson.dataformat.cbor", "CBORFactory");
+        ClassName smileFactory = ClassName.get("com.fasterxml.jackson.dataformat.smile", "SmileFactory");
+        TypeSpec.Builder builder = TypeSpec.classBuilder("SpringsmithBinaryFormatsConfiguration")
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.context.annotation", "Configuration"))
+                        .addMember("proxyBeanMethods", "false")
+                        .build());
+        ClassName bean = ClassName.get("org.springframework.context.annotation", "Bean");
+
+        if (target.equals(TARGET_REACTIVE)) {
+            String codec = "org.springframework.http.codec";
+            ClassName mediaType = ClassName.get("org.springframework.http", "MediaType");
+            ClassName mimeType = ClassName.get("org.springframework.util", "MimeType");
+            // prototype builder: one fresh ObjectMapper per format. The codecs only have (mapper, MimeType...) constructors,
+            // which fall back to the JSON types when none is given
+            CodeBlock.Builder body = CodeBlock.builder().add("return configurer -> {\n$>");
+            if (binaryFormats.contains(FORMAT_CBOR)) {
+                builder.addType(buildCborEncoder());
+                body.addStatement("$T cbor = builders.getObject().factory(new $T()).build()", objectMapper, cborFactory)
+                        .addStatement("configurer.customCodecs().register(new CborEncoder(cbor))")
+                        .addStatement("configurer.customCodecs().register(new $T(cbor, $T.APPLICATION_CBOR))",
+                                ClassName.get(codec + ".cbor", "Jackson2CborDecoder"), mediaType);
+            }
+            if (binaryFormats.contains(FORMAT_SMILE)) {
+                body.addStatement("$T smile = builders.getObject().factory(new $T()).build()", objectMapper, smileFactory)
+                        .addStatement("$T[] smileTypes = {new $T($S, $S), new $T($S, $S)}",
+                                mimeType, mimeType, "application", "x-jackson-smile", mimeType, "application", "*+x-jackson-smile")
+                        .addStatement("configurer.defaultCodecs().jackson2SmileEncoder(new $T(smile, smileTypes))", ClassName.get(codec + ".json", "Jackson2SmileEncoder"))
+                        .addStatement("configurer.defaultCodecs().jackson2SmileDecoder(new $T(smile, smileTypes))", ClassName.get(codec + ".json", "Jackson2SmileDecoder"));
+            }
+            body.add("$<};\n");
+            builder.addMethod(MethodSpec.methodBuilder("springsmithBinaryCodecs")
+                    .addModifiers(Modifier.PUBLIC)
+                    .addAnnotation(bean)
+                    .returns(ClassName.get("org.springframework.boot.web.codec", "CodecCustomizer"))
+                    .addParameter(ParameterizedTypeName.get(ClassName.get("org.springframework.beans.factory", "ObjectProvider"), builderClass), "builders")
+                    .addCode(body.build())
+                    .build());
+            return builder.build();
+        }
+
+        // HttpMessageConverters puts converter beans ahead of (or in place of) its defaults
+        String converters = "org.springframework.http.converter";
+        if (binaryFormats.contains(FORMAT_CBOR)) {
+            ClassName converter = ClassName.get(converters + ".cbor", "MappingJackson2CborHttpMessageConverter");
+            builder.addMethod(MethodSpec.methodBuilder("springsmithCborConverter")
+                    .addModifiers(Modifier.PUBLIC)
+                    .addAnnotation(bean)
+                    .returns(converter)
+                    .addParameter(builderClass, "builder")
+                    .addStatement("return new $T(builder.factory(new $T()).build())", converter, cborFactory)
+                    .build());
+        }
+        if (binaryFormats.contains(FORMAT_SMILE)) {
+            ClassName converter = ClassName.get(converters + ".smile", "MappingJackson2SmileHttpMessageConverter");
+            builder.addMethod(MethodSpec.methodBuilder("springsmithSmileConverter")
+                    .addModifiers(Modifier.PUBLIC)
+                    .addAnnotation(bean)
+                    .returns(converter)
+                    .addParameter(builderClass, "builder")
+                    .addStatement("return new $T(builder.factory(new $T()).build())", converter, smileFactory)
+                    .build());
+        }
+        return builder.build();
+    }
+
+    // Jackson2CborEncoder only writes single values and, as a custom codec, sorts ahead of the JSON default: Flux bodies
+    // (keyset pages) are collected into one CBOR array, and without a media type the encoder only answers the
+    // (Object, null) probe that files it among the object writers, so it is never a default for clients or endpoints
+    private TypeSpec buildCborEncoder() {
+        ClassName resolvableType = ClassName.get("org.springframework.core", "ResolvableType");
+        ClassName mimeType = ClassName.get("org.springframework.util", "MimeType");
+        ClassName dataBuffer = ClassName.get("org.springframework.core.io.buffer", "DataBuffer");
+        ClassName flux = ClassName.get("reactor.core.publisher", "Flux");
+        return TypeSpec.classBuilder("CborEncoder")
+                .addModifiers(Modifier.STATIC)
+                .superclass(ClassName.get("org.springframework.http.codec.cbor", "Jackson2CborEncoder"))
+                .addMethod(MethodSpec.constructorBuilder()
+                        .addParameter(ClassName.get("com.fasterxml.jackson.databind", "ObjectMapper"), "mapper")
+                        .addStatement("super(mapper, $T.APPLICATION_CBOR)", ClassName.get("org.springframework.http", "MediaType"))
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("canEncode")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(TypeName.BOOLEAN)
+                        .addParameter(resolvableType, "elementType")
+                        .addParameter(mimeType, "mimeType")
+                        .addStatement("return mimeType != null ? super.canEncode(elementType, mimeType) : elementType.getType() == $T.class",
+                                Object.class)
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("encode")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(ParameterizedTypeName.get(flux, dataBuffer))
+                        .addParameter(ParameterizedTypeName.get(ClassName.get("org.reactivestreams", "Publisher"), WildcardTypeName.subtypeOf(Object.class)), "inputStream")
+                        .addParameter(ClassName.get("org.springframework.core.io.buffer", "DataBufferFactory"), "bufferFactory")
+                        .addParameter(resolvableType, "elementType")
+                        .addParameter(mimeType, "mimeType")
+                        .addParameter(ParameterizedTypeName.get(Map.class, String.class, Object.class), "hints")
+                        .beginControlFlow("if (inputStream instanceof $T)", ClassName.get("reactor.core.publisher", "Mono"))
+                        .addStatement("return $T.from(inputStream).map(value -> encodeValue(value, bufferFactory, elementType, mimeType, hints))", flux)
+                        .endControlFlow()
+                        .addStatement("return $T.from(inputStream).collectList()\n$>.map(values -> encodeValue(values, bufferFactory, $T.forClassWithGenerics($T.class, elementType), mimeType, hints))\n.flux()$<",
+                                flux, resolvableType, List.class)
+                        .build())
+                .build();
+    }
+
+    // Cross-cutting code of a generated class, woven into each method when it is added rather than by rewriting the
+    // finished class: consumes of the binary formats, bulkhead permit and Micrometer timers. finish() adds the
+    // fields and constructor dependencies collected on the way
+    private final class Weaver {
+        private final TypeSpec.Builder builder;
+        private final String entitySimple;
+        private CodeBlock mediaTypes;
+        private ClassName bulkheadType;
+        private Map<String, String> guarded = Map.of();
+        private String layer;
+        private Map<String, String> timed;
+        private boolean rows;
+        private final CodeBlock.Builder registration = CodeBlock.builder();
+        private final Set<String> timers = new LinkedHashSet<>();
+        private final Set<String> summaries = new LinkedHashSet<>();
+        private final ClassName timer = ClassName.get("io.micrometer.core.instrument", "Timer");
+        private final ClassName summary = ClassName.get("io.micrometer.core.instrument", "DistributionSummary");
+
+        Weaver(TypeSpec.Builder builder, String entitySimple) {
+            this.builder = builder;
+            this.entitySimple = entitySimple;
+        }
+
+        // produces on the class (a method-level produces, e.g. NDJSON, still wins); consumes only where there is a body,
+        // otherwise a GET carrying a Content-Type would be rejected with 415
+        Weaver binaryFormats() {
+            if (binaryFormats.isEmpty()) return this;
+            ClassName mediaType = ClassName.get("org.springframework.http", "MediaType");
+            CodeBlock.Builder types = CodeBlock.builder().add("{$T.APPLICATION_JSON_VALUE", mediaType);
+            if (binaryFormats.contains(FORMAT_CBOR)) types.add(", $T.APPLICATION_CBOR_VALUE", mediaType);
+            if (binaryFormats.contains(FORMAT_SMILE)) types.add(", $S", SMILE_MEDIA_TYPE);
+            mediaTypes = types.add("}").build();
+            ClassName requestMapping = ClassName.get("org.springframework.web.bind.annotation", "RequestMapping");
+            builder.annotations.replaceAll(a -> a.type.equals(requestMapping) ? a.toBuilder().addMember("produces", mediaTypes).build() : a);
+            return this;
+        }
+
+        // acquire/release of the bulkhead permit around the operations; applied outside the timer, so the timers
+        // measure the work done with a permit, not the wait or the rejections
+        Weaver guard(ClassName bulkheadType, Map<String, String> ops) {
+            this.bulkheadType = bulkheadType;
+            this.guarded = ops;
+            builder.addField(FieldSpec.builder(bulkheadType, decap(bulkheadType.simpleName()), Modifier.PRIVATE, Modifier.FINAL).build());
+            return this;
+        }
+
+        // Micrometer timers compiled into the generated bodies (no AOP proxy): one Timer per layer/entity/op,
+        // registered once, plus a rows summary for list results when rows is set. ops == null times every public
+        // method. A timer covers the whole body it wraps: for the service, queries and mapping (the @Transactional
+        // begin/commit happen in the proxy, outside)
+        Weaver time(String layer, Map<String, String> ops, boolean rows) {
+            this.layer = layer;
+            this.timed = ops;
+            this.rows = rows;
+            return this;
+        }
+
+        void add(MethodSpec method) {
+            CodeBlock code = method.code;
+            String op = layer == null ? null
+                    : timed != null ? timed.get(method.name)
+                    : method.modifiers.contains(Modifier.PUBLIC) ? method.name : null;
+            if (op != null) {
+                code = timed(code, method.returnType, op);
+            }
+            op = guarded.get(method.name);
+            if (op != null) {
+                String bulkheadField = decap(bulkheadType.simpleName());
+                code = CodeBlock.builder()
+                        .addStatement("$N.acquire($S)", bulkheadField, op)
+                        .beginControlFlow("try")
+                        .add(code)
+                        .nextControlFlow("finally")
+                        .addStatement("$N.release($S)", bulkheadField, op)
+                        .endControlFlow()
+                        .build();
+            }
+
+            // MethodSpec.Builder cannot replace a body: a new body means a new builder
+            MethodSpec.Builder woven = code == method.code ? method.toBuilder() : MethodSpec.methodBuilder(method.name)
+                    .addJavadoc(method.javadoc)
+                    .addAnnotations(method.annotations)
+                    .addModifiers(method.modifiers)
+                    .addTypeVariables(method.typeVariables)
+                    .returns(method.returnType)
+                    .addParameters(method.parameters)
+                    .varargs(method.varargs)
+                    .addExceptions(method.exceptions)
+                    .addCode(code);
+            ClassName requestBody = ClassName.get("org.springframework.web.bind.annotation", "RequestBody");
+            if (mediaTypes != null && method.parameters.stream().anyMatch(p -> p.annotations.stream().anyMatch(a -> a.type.equals(requestBody)))) {
+                woven.annotations.replaceAll(a -> a.type instanceof ClassName c && c.packageName().equals(requestBody.packageName())
+                        && c.simpleName().endsWith("Mapping") ? a.toBuilder().addMember("consumes", mediaTypes).build() : a);
+            }
+            builder.addMethod(woven.build());
+        }
+
+        private CodeBlock timed(CodeBlock body, TypeName returnType, String op) {
+            String timerField = op + "Timer";
+            if (timers.add(op)) {
+                registration.addStatement("this.$N = $T.builder($S).tag($S, $S).tag($S, $S).register(meterRegistry)",
+                        timerField, timer, "springsmith." + layer, "entity", entitySimple, "op", op);
+            }
+            String count = null;
+            if (rows && returnType instanceof ParameterizedTypeName type) {
+                if (type.rawType.equals(ClassName.get(List.class))) {
+                    count = "size";
+                } else if (type.rawType.equals(ClassName.get("org.springframework.data.domain", "Page"))) {
+                    count = "getNumberOfElements";
+                }
+            }
+            String rowsField = op + "Rows";
+            if (count != null && summaries.add(op)) {
+                registration.addStatement("this.$N = $T.builder($S).baseUnit($S).tag($S, $S).tag($S, $S).register(meterRegistry)",
+                        rowsField, summary, "springsmith." + layer + ".rows", "rows", "entity", entitySimple, "op", op);
+            }
+
+            CodeBlock.Builder code = CodeBlock.builder();
+            if (returnType.equals(TypeName.VOID)) {
+                code.add("$N.record(() -> {\n$>", timerField);
+            } else if (count == null) {
+                code.add("return $N.record(() -> {\n$>", timerField);
+            } else {
+                code.add("$T result = $N.record(() -> {\n$>", returnType, timerField);
+            }
+            code.add(body).add("$<});\n");
+            if (count != null) {
+                code.addStatement("$N.record(result.$L())", rowsField, count)
+                        .addStatement("return result");
+            }
+            return code.build();
+        }
+
+        // constructor == null: the class is instantiated by a framework (MapStruct decorator), the registry comes
+        // through a setter
+        void finish(MethodSpec.Builder constructor) {
+            Modifier[] fieldModifiers = constructor != null ? new Modifier[]{Modifier.PRIVATE, Modifier.FINAL} : new Modifier[]{Modifier.PRIVATE};
+            for (String op : timers) {
+                builder.addField(FieldSpec.builder(timer, op + "Timer", fieldModifiers).build());
+            }
+            for (String op : summaries) {
+                builder.addField(FieldSpec.builder(summary, op + "Rows", fieldModifiers).build());
+            }
+            if (bulkheadType != null) {
+                String bulkheadField = decap(bulkheadType.simpleName());
+                constructor.addParameter(bulkheadType, bulkheadField)
+                        .addStatement("this.$N = $N", bulkheadField, bulkheadField);
+            }
+            ParameterSpec registry = ParameterSpec.builder(ClassName.get("io.micrometer.core.instrument", "MeterRegistry"), "meterRegistry").build();
+            if (layer != null && constructor != null) {
+                constructor.addParameter(registry).addCode(registration.build());
+            } else if (layer != null) {
+                builder.addMethod(MethodSpec.methodBuilder("setMeterRegistry")
+                        .addModifiers(Modifier.PUBLIC)
+                        .addAnnotation(ClassName.get("org.springframework.beans.factory.annotation", "Autowired"))
+                        .addParameter(registry)
+                        .addCode(registration.build())
+                        .build());
+            }
+            // JavaPoet emits constructors before the other methods whatever the insertion order
+            if (constructor != null) {
+                builder.addMethod(constructor.build());
+            }
+        }
+    }
+
+    // DTO property: relation = entity field of a flattened to-one (null for scalars), path = attribute selected by JPQL
+    private record DtoField(String name, TypeName type, String relation, String path, boolean selectable) {
+    }
+
+    private List<DtoField> dtoFields(TypeElement entity) {
+        List<DtoField> cached = dtoFieldCache.get(entity);
+        if (cached != null) {
+            return cached;
+        }
+        EntityModel model = model(entity);
+        List<DtoField> fields = new ArrayList<>();
+
+        for (VariableElement field : model.fields()) {
+            // Skip OneToMany / ManyToMany collections
+            if (model.toMany().contains(field)) continue;
+
+            if (model.toOne().contains(field)) {
+                // only referenced ID, avoid double "Id"
+                TypeElement referencedEl = model.related().get(field);
+                if (referencedEl != null) {
+                    EntityModel referenced = model(referencedEl);
+                    if (referenced.idField().isPresent()) {
+                        String base = field.getSimpleName().toString();
+                        fields.add(new DtoField(base.endsWith("Id") ? base : base + "Id",
+                                referenced.idType(),
+                                base,
+                                referenced.idName(),
+                                true));
+                    }
+                }
+            } else {
+                // transient and element-collection fields end up in the DTO but cannot be selected by JPQL
+                boolean selectable = !model.transients().contains(field) && !model.collections().contains(field);
+                String name = field.getSimpleName().toString();
+                fields.add(new DtoField(name, model.typeOf(field), null, name, selectable));
+            }
+        }
+
+        dtoFieldCache.put(entity, fields);
+        return fields;
+    }
+
+    // to-one relations that ?expand= can inline: the related entity has an @Id, and the relation name does not clash
+    // with the xxxId property of the DTO
+    private List<VariableElement> expandable(TypeElement entity) {
+        if (!expand) {
+            return List.of();
+        }
+        EntityModel model = model(entity);
+        List<VariableElement> relations = new ArrayList<>();
+        for (VariableElement field : model.toOne()) {
+            TypeElement related = model.related().get(field);
+            if (related != null && model(related).idField().isPresent() && !field.getSimpleName().toString().endsWith("Id")) {
+                relations.add(field);
+            }
+        }
+        return relations;
+    }
+
+    // DTO properties ?fields= can ask for: the ones a JPQL query can select (springsmith.sparseFields)
+    private List<DtoField> sparse(TypeElement entity) {
+        if (!sparseFields || model(entity).idField().isEmpty()) {
+            return List.of();
+        }
+        return dtoFields(entity).stream().filter(DtoField::selectable).toList();
+    }
+
+    private record FilterField(String name, TypeName type, String relation, String path, boolean range, boolean like) {
+    }
+
+    // DTO properties the list endpoint can filter on (springsmith.filters): scalar columns but the @Version, and the ids of
+    // to-one relations.
+    // Names clashing with the paging parameters are left out, the query string could not tell them apart.
+    private List<FilterField> filterable(TypeElement entity) {
+        EntityModel model = model(entity);
+        if (!filters || model.idField().isEmpty()) {
+            return List.of();
+        }
+        String version = model.versionField().map(f -> f.getSimpleName().toString()).orElse(null);
+        Set<TypeName> enums = new HashSet<>();
+        for (VariableElement field : model.enums()) {
+            enums.add(model.typeOf(field));
+        }
+        List<FilterField> fields = new ArrayList<>();
+        for (DtoField field : dtoFields(entity)) {
+            if (!field.selectable() || field.name().equals(version) || Set.of("page", "size", "sort", "expand", "fields").contains(field.name())) continue;
+            TypeName type = field.type().box();
+            String name = type.toString();
+            // ids of related rows: equality and IN only
+            boolean range = field.relation() == null && RANGE_FILTER_TYPES.contains(name);
+            if (RANGE_FILTER_TYPES.contains(name) || enums.contains(field.type()) || name.equals("java.lang.String") || name.equals("java.lang.Boolean")
+                    || name.equals("java.lang.Character") || name.equals("java.util.UUID")) {
+                fields.add(new FilterField(field.name(), type, field.relation(), field.path(), range, name.equals("java.lang.String")));
+            }
+        }
+        return fields;
+    }
+
+    // XFilter: bound from the query string of the list endpoint (title=..., pagesFrom=..., authorIdIn=1,2, titleLike=...)
+    // and turned into one JPA Specification; every criterion set is ANDed, the SQL does the filtering.
+    private TypeSpec buildFilter(TypeElement entity, String entitySimple) {
+        EntityModel model = model(entity);
+        ClassName entityClass = ClassName.get(model.packageName(), entitySimple);
+        ClassName predicate = ClassName.get("jakarta.persistence.criteria", "Predicate");
+        ClassName dateTimeFormat = ClassName.get("org.springframework.format.annotation", "DateTimeFormat");
+
+        TypeSpec.Builder builder = TypeSpec.classBuilder(entitySimple + "Filter")
+                .addModifiers(Modifier.PUBLIC);
+        MethodSpec.Builder toSpecification = MethodSpec.methodBuilder("toSpecification")
+                .addModifiers(Modifier.PUBLIC)
+                .returns(ParameterizedTypeName.get(ClassName.get("org.springframework.data.jpa.domain", "Specification"), entityClass))
+                .addCode("return (root, query, cb) -> {\n$>")
+                .addStatement("$T predicates = new $T<>()", ParameterizedTypeName.get(ClassName.get(List.class), predicate), ArrayList.class);
+        List<CodeBlock> unset = new ArrayList<>();
+
+        for (FilterField field : filterable(entity)) {
+            String iso = switch (field.type().toString()) {
+                case "java.time.LocalDate" -> "DATE";
+                case "java.time.LocalTime" -> "TIME";
+                case "java.time.LocalDateTime", "java.time.OffsetDateTime", "java.time.ZonedDateTime" -> "DATE_TIME";
+                default -> null;
+            };
+            AnnotationSpec format = iso == null ? null : AnnotationSpec.builder(dateTimeFormat)
+                    .addMember("iso", "$T.ISO.$L", dateTimeFormat, iso)
+                    .build();
+            CodeBlock path = field.relation() == null
+                    ? CodeBlock.of("root.<$T>get($S)", field.type(), field.path())
+                    : CodeBlock.of("root.get($S).<$T>get($S)", field.relation(), field.type(), field.path());
+            String name = field.name();
+
+            addFilterProperty(builder, name, field.type(), format);
+            toSpecification.beginControlFlow("if ($N != null)", name)
+                    .addStatement("predicates.add(cb.equal($L, $N))", path, name)
+                    .endControlFlow();
+            unset.add(CodeBlock.of("$N == null", name));
+
+            if (!field.type().equals(ClassName.get(Boolean.class))) {
+                addFilterProperty(builder, name + "In", ParameterizedTypeName.get(ClassName.get(List.class), field.type()), format);
+                toSpecification.beginControlFlow("if ($N != null && !$N.isEmpty())", name + "In", name + "In")
+                        .addStatement("predicates.add($L.in($N))", path, name + "In")
+                        .endControlFlow();
+                unset.add(CodeBlock.of("($N == null || $N.isEmpty())", name + "In", name + "In"));
+            }
+            if (field.range()) {
+                addFilterProperty(builder, name + "From", field.type(), format);
+                addFilterProperty(builder, name + "To", field.type(), format);
+                toSpecification.beginControlFlow("if ($N != null)", name + "From")
+                        .addStatement("predicates.add(cb.greaterThanOrEqualTo($L, $N))", path, name + "From")
+                        .endControlFlow()
+                        .beginControlFlow("if ($N != null)", name + "To")
+                        .addStatement("predicates.add(cb.lessThanOrEqualTo($L, $N))", path, name + "To")
+                        .endControlFlow();
+                unset.add(CodeBlock.of("$N == null", name + "From"));
+                unset.add(CodeBlock.of("$N == null", name + "To"));
+            }
+            if (field.like()) {
+                // case-insensitive "contains"; the LIKE wildcards typed by the client are escaped
+                addFilterProperty(builder, name + "Like", field.type(), null);
+                toSpecification.beginControlFlow("if ($N != null)", name + "Like")
+                        .addStatement("predicates.add(cb.like(cb.lower($L), contains($N), '\\\\'))", path, name + "Like")
+                        .endControlFlow();
+                unset.add(CodeBlock.of("$N == null", name + "Like"));
+            }
+        }
+
+        CodeBlock.Builder none = CodeBlock.builder();
+        for (int i = 0; i < unset.size(); i++) {
+            none.add(i == 0 ? "$L" : "$W&& $L", unset.get(i));
+        }
+        builder.addMethod(MethodSpec.methodBuilder("hasCriteria")
+                .addModifiers(Modifier.PUBLIC)
+                .returns(TypeName.BOOLEAN)
+                .addStatement("return !($L)", none.build())
+                .build());
+        builder.addMethod(toSpecification
+                .addStatement("return cb.and(predicates.toArray(new $T[0]))", predicate)
+                .addCode("$<};\n")
+                .build());
+        builder.addMethod(MethodSpec.methodBuilder("contains")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .returns(String.class)
+                .addParameter(String.class, "value")
+                .addStatement("return \"%\" + value.toLowerCase().replace(\"\\\\\", \"\\\\\\\\\").replace(\"%\", \"\\\\%\").replace(\"_\", \"\\\\_\") + \"%\"")
+                .build());
+        return builder.build();
+    }
+
+    private void addFilterProperty(TypeSpec.Builder builder, String name, TypeName type, AnnotationSpec format) {
+        FieldSpec.Builder field = FieldSpec.builder(type, name, Modifier.PRIVATE);
+        if (format != null) {
+            field.addAnnotation(format);
+        }
+        builder.addField(field.build())
+                .addMethod(MethodSpec.methodBuilder(getterName(name, type))
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(type)
+                        .addStatement("return this.$N", name)
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("set" + capitalize(name))
+                        .addModifiers(Modifier.PUBLIC)
+                        .addParameter(type, name)
+                        .addStatement("this.$N = $N", name, name)
+                        .build());
+    }
+
+    private TypeSpec buildBatchResult(TypeElement entity, String entitySimple) {
+        String resultName = entitySimple + "BatchItemResult";
+        String entityPkg = model(entity).packageName();
+        ClassName resultClass = ClassName.get(replaceLastPackageSegment(entityPkg, BASE_PACKAGE_SUFFIX_DTO), resultName);
+        ClassName dtoClass = ClassName.get(replaceLastPackageSegment(entityPkg, BASE_PACKAGE_SUFFIX_DTO), entitySimple + "DTO");
+        TypeName idType = model(entity).idType();
+
+        TypeSpec.Builder builder = TypeSpec.classBuilder(resultName)
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(AnnotationSpec.builder(ClassName.get("com.fasterxml.jackson.annotation", "JsonInclude"))
+                        .addMember("value", "$T.$L",
+                                ClassName.get("com.fasterxml.jackson.annotation", "JsonInclude.Include"),
+                                "NON_NULL")
+                        .build());
+
+        // index = position of the item in the request body
+        String[] names = {"index", "success", "id", "data", "error"};
+        TypeName[] types = {TypeName.INT, TypeName.BOOLEAN, idType, dtoClass, ClassName.get(String.class)};
+        MethodSpec.Builder constructor = MethodSpec.constructorBuilder().addModifiers(Modifier.PRIVATE);
+        for (int i = 0; i < names.length; i++) {
+            builder.addField(FieldSpec.builder(types[i], names[i], Modifier.PRIVATE, Modifier.FINAL).build());
+            constructor.addParameter(types[i], names[i]).addStatement("this.$N = $N", names[i], names[i]);
+            builder.addMethod(MethodSpec.methodBuilder((types[i].equals(TypeName.BOOLEAN) ? "is" : "get") + capitalize(names[i]))
+                    .addModifiers(Modifier.PUBLIC)
+                    .returns(types[i])
+                    .addStatement("return this.$N", names[i])
+                    .build());
+        }
+        builder.addMethod(constructor.build());
+
+        builder.addMethod(MethodSpec.methodBuilder("success")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .returns(resultClass)
+                .addParameter(TypeName.INT, "index")
+                .addParameter(idType, "id")
+                .addParameter(dtoClass, "data")
+                .addStatement("return new $T(index, true, id, data, null)", resultClass)
+                .build());
+        builder.addMethod(MethodSpec.methodBuilder("failure")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .returns(resultClass)
+                .addParameter(TypeName.INT, "index")
+                .addParameter(ClassName.get(String.class), "error")
+                .addStatement("return new $T(index, false, null, null, error)", resultClass)
+                .build());
+
+        return builder.build();
+    }
+
+    // change feed of an entity: the last-modified column orders the rows (id breaks ties), the optional boolean tombstone
+    // column moves soft-deleted rows to the deleted ids of the page
+    private record ChangeFeed(DtoField timestamp, DtoField tombstone) {
+    }
+
+    private Optional<ChangeFeed> changeFeed(TypeElement entity) {
+        EntityModel model = model(entity);
+        if (!changes || model.idField().isEmpty() || model.lastModifiedField().isEmpty()
+                || !CHANGE_ID_TYPES.contains(model.idType().box().toString())) {
+            return Optional.empty();
+        }
+        String lastModified = model.lastModifiedField().get().getSimpleName().toString();
+        DtoField timestamp = null;
+        DtoField tombstone = null;
+        for (DtoField field : dtoFields(entity)) {
+            if (field.relation() != null || !field.selectable()) continue;
+            if (field.name().equals(lastModified) && CHANGE_TIMESTAMP_TYPES.contains(field.type().toString())) {
+                timestamp = field;
+            } else if (field.name().equals(changesTombstone) && field.type().box().equals(ClassName.get(Boolean.class))) {
+                tombstone = field;
+            }
+        }
+        return timestamp == null ? Optional.empty() : Optional.of(new ChangeFeed(timestamp, tombstone));
+    }
+
+    // XChangesDTO: one page of GET /changes; next is the opaque cursor to send back as ?since=
+    private TypeSpec buildChanges(TypeElement entity, String entitySimple) {
+        String dtoPkg = model(entity).packageFor(BASE_PACKAGE_SUFFIX_DTO);
+        ClassName dtoClass = ClassName.get(dtoPkg, entitySimple + "DTO");
+        TypeName idType = model(entity).idType().box();
+        boolean tombstones = changeFeed(entity).get().tombstone() != null;
+
+        TypeSpec.Builder builder = TypeSpec.classBuilder(entitySimple + "ChangesDTO")
+                .addModifiers(Modifier.PUBLIC);
+        List<String> names = new ArrayList<>(List.of("changed", "next", "hasMore"));
+        List<TypeName> types = new ArrayList<>(List.of(ParameterizedTypeName.get(ClassName.get(List.class), dtoClass),
+                ClassName.get(String.class), TypeName.BOOLEAN));
+        if (tombstones) {
+            names.add(1, "deleted");
+            types.add(1, ParameterizedTypeName.get(ClassName.get(List.class), idType));
+        }
+        MethodSpec.Builder constructor = MethodSpec.constructorBuilder().addModifiers(Modifier.PUBLIC);
+        for (int i = 0; i < names.size(); i++) {
+            builder.addField(FieldSpec.builder(types.get(i), names.get(i), Modifier.PRIVATE, Modifier.FINAL).build());
+            constructor.addParameter(types.get(i), names.get(i)).addStatement("this.$N = $N", names.get(i), names.get(i));
+            builder.addMethod(MethodSpec.methodBuilder(getterName(names.get(i), types.get(i)))
+                    .addModifiers(Modifier.PUBLIC)
+                    .returns(types.get(i))
+                    .addStatement("return this.$N", names.get(i))
+                    .build());
+        }
+        return builder.addMethod(constructor.build()).build();
+    }
+
+    // controller method -> operation name, shared by the metrics tags and the bulkhead permits
+    private Map<String, String> controllerOps(TypeElement entity, String entitySimple) {
+        String plural = pluralize(entitySimple);
+        Map<String, String> ops = new LinkedHashMap<>();
+        ops.put("getAll" + plural, "findAll");
+        ops.put("get" + plural + "After", "findAfter");
+        ops.put("get" + entitySimple + "ById", "findById");
+        ops.put("create" + entitySimple, "save");
+        ops.put("update" + entitySimple, "update");
+        ops.put("patch" + entitySimple, "patch");
+        ops.put("delete" + entitySimple, "delete");
+        ops.put("create" + plural, "saveAll");
+        ops.put("update" + plural, "updateAll");
+        ops.put("delete" + plural, "deleteAll");
+        if (changeFeed(entity).isPresent()) {
+            ops.put("get" + entitySimple + "Changes", "findChanges");
+        }
+        return ops;
+    }
+
+    // XBulkhead: one semaphore per controller operation, so a burst on one entity (or on its writes) cannot take every
+    // JDBC connection. A request waits at most max-wait for a permit, then gets 503 (or 429) with Retry-After.
+    private TypeSpec buildBulkhead(TypeElement entity, String entitySimple) {
+        String bulkheadName = entitySimple + "Bulkhead";
+        String prefix = "springsmith.bulkhead." + kebab(entitySimple);
+        ClassName semaphore = ClassName.get("java.util.concurrent", "Semaphore");
+        ClassName environment = ClassName.get("org.springframework.core.env", "Environment");
+        ClassName duration = ClassName.get("java.time", "Duration");
+        ClassName httpStatus = ClassName.get("org.springframework.http", "HttpStatus");
+        ClassName functionCounter = ClassName.get("io.micrometer.core.instrument", "FunctionCounter");
+        ClassName gauge = ClassName.get("io.micrometer.core.instrument", "Gauge");
+        ClassName longAdder = ClassName.get("java.util.concurrent.atomic", "LongAdder");
+
+        TypeSpec.Builder builder = TypeSpec.classBuilder(bulkheadName)
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(ClassName.get("org.springframework.stereotype", "Component"))
+                // filled in the constructor, read-only afterwards
+                .addField(FieldSpec.builder(ParameterizedTypeName.get(ClassName.get(Map.class), ClassName.get(String.class), semaphore),
+                                "permits", Modifier.PRIVATE, Modifier.FINAL)
+                        .initializer("new $T<>()", HashMap.class)
+                        .build())
+                .addField(FieldSpec.builder(ParameterizedTypeName.get(ClassName.get(Map.class), ClassName.get(String.class), longAdder),
+                                "rejected", Modifier.PRIVATE, Modifier.FINAL)
+                        .initializer("new $T<>()", HashMap.class)
+                        .build())
+                .addField(TypeName.LONG, "maxWaitNanos", Modifier.PRIVATE, Modifier.FINAL)
+                .addField(String.class, "retryAfter", Modifier.PRIVATE, Modifier.FINAL)
+                .addField(httpStatus, "status", Modifier.PRIVATE, Modifier.FINAL);
+
+        MethodSpec.Builder constructor = MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(environment, "environment")
+                .addStatement("int maxConcurrent = environment.getProperty($S, $T.class,$W"
+                                + "environment.getProperty($S, $T.class, $L))",
+                        prefix + ".max-concurrent", Integer.class, "springsmith.bulkhead.max-concurrent", Integer.class, DEFAULT_BULKHEAD_MAX_CONCURRENT)
+                .addStatement("$T maxWait = environment.getProperty($S, $T.class,$W"
+                                + "environment.getProperty($S, $T.class, $T.ofMillis($L)))",
+                        duration, prefix + ".max-wait", duration, "springsmith.bulkhead.max-wait", duration, duration, DEFAULT_BULKHEAD_MAX_WAIT_MILLIS)
+                .addStatement("this.maxWaitNanos = maxWait.toNanos()")
+                .addComment("Retry-After is whole seconds")
+                .addStatement("this.retryAfter = $T.valueOf($T.max(1, environment.getProperty($S, $T.class, $T.ofSeconds(1)).toSeconds()))",
+                        String.class, Math.class, "springsmith.bulkhead.retry-after", duration, duration)
+                .addStatement("this.status = $T.valueOf(environment.getProperty($S, $T.class, 503))",
+                        httpStatus, "springsmith.bulkhead.status", Integer.class);
+        List<String> ops = new ArrayList<>(controllerOps(entity, entitySimple).values());
+        if (streaming) {
+            // the NDJSON export holds its permit (and a connection) for the whole export: a separate semaphore
+            ops.add(STREAM_OP);
+        }
+        for (String op : ops) {
+            constructor.addStatement("permits.put($S, new $T(environment.getProperty($S, $T.class, maxConcurrent)))",
+                            op, semaphore, prefix + "." + kebab(op) + ".max-concurrent", Integer.class)
+                    .addStatement("rejected.put($S, new $T())", op, longAdder);
+        }
+        // exported whenever the application has a MeterRegistry, independently of springsmith.metrics: permits in
+        // use and rejections per operation, plus the limit so dashboards can show saturation
+        constructor.addParameter(ParameterizedTypeName.get(ClassName.get("org.springframework.beans.factory", "ObjectProvider"),
+                        ClassName.get("io.micrometer.core.instrument", "MeterRegistry")), "meterRegistry")
+                .addCode("meterRegistry.ifAvailable(registry -> permits.forEach((op, semaphore) -> {\n$>")
+                .addStatement("int limit = semaphore.availablePermits()")
+                .addStatement("$T.builder($S, semaphore, s -> limit - s.availablePermits()).tag($S, $S).tag($S, op).register(registry)",
+                        gauge, "springsmith.bulkhead.active", "entity", entitySimple, "op")
+                .addStatement("$T.builder($S, () -> limit).tag($S, $S).tag($S, op).register(registry)",
+                        gauge, "springsmith.bulkhead.limit", "entity", entitySimple, "op")
+                .addStatement("$T.builder($S, rejected.get(op), $T::sum).tag($S, $S).tag($S, op).register(registry)",
+                        functionCounter, "springsmith.bulkhead.rejected", longAdder, "entity", entitySimple, "op")
+                .addCode("$<}));\n");
+
+        MethodSpec.Builder acquire = MethodSpec.methodBuilder("acquire")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(String.class, "op")
+                .addStatement("boolean acquired")
+                .beginControlFlow("try")
+                .addStatement("acquired = permits.get(op).tryAcquire(maxWaitNanos, $T.NANOSECONDS)", ClassName.get("java.util.concurrent", "TimeUnit"))
+                .nextControlFlow("catch ($T ex)", InterruptedException.class)
+                .addStatement("Thread.currentThread().interrupt()")
+                .addStatement("acquired = false")
+                .endControlFlow()
+                .beginControlFlow("if (!acquired)")
+                .addStatement("rejected.get(op).increment()")
+                .addStatement("$T ex = new $T(status)",
+                        ClassName.get("org.springframework.web", "ErrorResponseException"),
+                        ClassName.get("org.springframework.web", "ErrorResponseException"))
+                .addStatement("ex.getHeaders().set($T.RETRY_AFTER, retryAfter)", ClassName.get("org.springframework.http", "HttpHeaders"))
+                .addStatement("throw ex")
+                .endControlFlow();
+
+        return builder.addMethod(constructor.build())
+                .addMethod(acquire.build())
+                .addMethod(MethodSpec.methodBuilder("release")
+                        .addModifiers(Modifier.PUBLIC)
+                        .addParameter(String.class, "op")
+                        .addStatement("permits.get(op).release()")
+                        .build())
+                .build();
+    }
+
+    private TypeSpec buildCache(TypeElement entity, String entitySimple) {
+        String cacheName = entitySimple + "Cache";
+        String entityPkg = model(entity).packageName();
+        ClassName dtoClass = ClassName.get(replaceLastPackageSegment(entityPkg, BASE_PACKAGE_SUFFIX_DTO), entitySimple + "DTO");
+        TypeName idType = model(entity).idType().box();
+        ClassName entryClass = ClassName.get(replaceLastPackageSegment(entityPkg, BASE_PACKAGE_SUFFIX_SERVICE), cacheName, "Entry");
+        ClassName longAdder = ClassName.get("java.util.concurrent.atomic", "LongAdder");
+        ClassName atomicLong = ClassName.get("java.util.concurrent.atomic", "AtomicLong");
+        ClassName atomicBoolean = ClassName.get("java.util.concurrent.atomic", "AtomicBoolean");
+        ClassName valueAnno = ClassName.get("org.springframework.beans.factory.annotation", "Value");
+        String property = "springsmith.cache." + kebab(entitySimple);
+
+        TypeSpec entry = TypeSpec.classBuilder("Entry")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .addField(dtoClass, "value", Modifier.PRIVATE, Modifier.FINAL)
+                .addField(TypeName.LONG, "expiresAt", Modifier.PRIVATE, Modifier.FINAL)
+                .addMethod(MethodSpec.constructorBuilder()
+                        .addModifiers(Modifier.PRIVATE)
+                        .addParameter(dtoClass, "value")
+                        .addParameter(TypeName.LONG, "expiresAt")
+                        .addStatement("this.value = value")
+                        .addStatement("this.expiresAt = expiresAt")
+                        .build())
+                .build();
+
+        TypeSpec.Builder builder = TypeSpec.classBuilder(cacheName)
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(ClassName.get("org.springframework.stereotype", "Component"))
+                .addType(entry)
+                // no lock and no access order on the read path: reads only touch the map and the counters
+                .addField(FieldSpec.builder(ParameterizedTypeName.get(ClassName.get(ConcurrentHashMap.class), idType, entryClass),
+                                "entries", Modifier.PRIVATE, Modifier.FINAL)
+                        .initializer("new $T<>()", ConcurrentHashMap.class)
+                        .build())
+                // bumped by every eviction; a load that started before the bump must not be cached
+                .addField(FieldSpec.builder(atomicLong, "invalidations", Modifier.PRIVATE, Modifier.FINAL)
+                        .initializer("new $T()", atomicLong)
+                        .build())
+                .addField(FieldSpec.builder(atomicBoolean, "trimming", Modifier.PRIVATE, Modifier.FINAL)
+                        .initializer("new $T()", atomicBoolean)
+                        .build())
+                .addField(FieldSpec.builder(longAdder, "hits", Modifier.PRIVATE, Modifier.FINAL).initializer("new $T()", longAdder).build())
+                .addField(FieldSpec.builder(longAdder, "misses", Modifier.PRIVATE, Modifier.FINAL).initializer("new $T()", longAdder).build())
+                .addField(FieldSpec.builder(longAdder, "evictions", Modifier.PRIVATE, Modifier.FINAL).initializer("new $T()", longAdder).build())
+                .addField(TypeName.INT, "maximumSize", Modifier.PRIVATE, Modifier.FINAL)
+                .addField(TypeName.LONG, "ttlNanos", Modifier.PRIVATE, Modifier.FINAL);
+
+        MethodSpec.Builder constructor = MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(ParameterSpec.builder(TypeName.INT, "maximumSize")
+                        .addAnnotation(AnnotationSpec.builder(valueAnno)
+                                .addMember("value", "$S", "${" + property + ".maximum-size:${springsmith.cache.maximum-size:1000}}")
+                                .build())
+                        .build())
+                .addParameter(ParameterSpec.builder(ClassName.get("java.time", "Duration"), "ttl")
+                        .addAnnotation(AnnotationSpec.builder(valueAnno)
+                                .addMember("value", "$S", "${" + property + ".ttl:${springsmith.cache.ttl:10m}}")
+                                .build())
+                        .build())
+                .addStatement("this.maximumSize = maximumSize")
+                .addStatement("this.ttlNanos = ttl.toNanos()");
+        if (metrics) {
+            ClassName functionCounter = ClassName.get("io.micrometer.core.instrument", "FunctionCounter");
+            ClassName gauge = ClassName.get("io.micrometer.core.instrument", "Gauge");
+            constructor.addParameter(ClassName.get("io.micrometer.core.instrument", "MeterRegistry"), "meterRegistry")
+                    .addStatement("$T.builder($S, hits, $T::sum).tag($S, $S).tag($S, $S).register(meterRegistry)",
+                            functionCounter, "springsmith.cache.gets", longAdder, "entity", entitySimple, "result", "hit")
+                    .addStatement("$T.builder($S, misses, $T::sum).tag($S, $S).tag($S, $S).register(meterRegistry)",
+                            functionCounter, "springsmith.cache.gets", longAdder, "entity", entitySimple, "result", "miss")
+                    .addStatement("$T.builder($S, evictions, $T::sum).tag($S, $S).register(meterRegistry)",
+                            functionCounter, "springsmith.cache.evictions", longAdder, "entity", entitySimple)
+                    .addStatement("$T.builder($S, entries, $T::size).tag($S, $S).register(meterRegistry)",
+                            gauge, "springsmith.cache.size", Map.class, "entity", entitySimple);
+        }
+        builder.addMethod(constructor.build());
+
+        builder.addMethod(MethodSpec.methodBuilder("get")
+                .addModifiers(Modifier.PUBLIC)
+                .returns(dtoClass)
+                .addParameter(idType, "id")
+                .addStatement("$T entry = entries.get(id)", entryClass)
+                .beginControlFlow("if (entry == null)")
+                .addStatement("misses.increment()")
+                .addStatement("return null")
+                .endControlFlow()
+                .beginControlFlow("if ($T.nanoTime() - entry.expiresAt > 0)", System.class)
+                .beginControlFlow("if (entries.remove(id, entry))")
+                .addStatement("evictions.increment()")
+                .endControlFlow()
+                .addStatement("misses.increment()")
+                .addStatement("return null")
+                .endControlFlow()
+                .addStatement("hits.increment()")
+                .addStatement("return entry.value")
+                .build());
+
+        builder.addMethod(MethodSpec.methodBuilder("stamp")
+                .addModifiers(Modifier.PUBLIC)
+                .returns(TypeName.LONG)
+                .addStatement("return invalidations.get()")
+                .build());
+
+        // stamp = stamp() read before the value was loaded. evict() bumps the stamp before removing, so either the
+        // second check sees the bump or the eviction removes the entry put here
+        builder.addMethod(MethodSpec.methodBuilder("put")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(idType, "id")
+                .addParameter(dtoClass, "value")
+                .addParameter(TypeName.LONG, "stamp")
+                .beginControlFlow("if (invalidations.get() != stamp)")
+                .addStatement("return")
+                .endControlFlow()
+                .addStatement("$T entry = new $T(value, $T.nanoTime() + ttlNanos)", entryClass, entryClass, System.class)
+                .addStatement("entries.put(id, entry)")
+                .beginControlFlow("if (invalidations.get() != stamp)")
+                .addStatement("entries.remove(id, entry)")
+                .addStatement("return")
+                .endControlFlow()
+                .beginControlFlow("if (entries.size() > maximumSize && trimming.compareAndSet(false, true))")
+                .beginControlFlow("try")
+                .addStatement("trim()")
+                .nextControlFlow("finally")
+                .addStatement("trimming.set(false)")
+                .endControlFlow()
+                .endControlFlow()
+                .build());
+
+        // over the limit: expired entries go first, then arbitrary ones down to 90% of the limit, so the scan is
+        // not repeated on every put of a full cache
+        TypeName iterator = ParameterizedTypeName.get(ClassName.get("java.util", "Iterator"), entryClass);
+        builder.addMethod(MethodSpec.methodBuilder("trim")
+                .addModifiers(Modifier.PRIVATE)
+                .addStatement("long now = $T.nanoTime()", System.class)
+                .addStatement("$T it = entries.values().iterator()", iterator)
+                .beginControlFlow("while (it.hasNext())")
+                .beginControlFlow("if (now - it.next().expiresAt > 0)")
+                .addStatement("it.remove()")
+                .addStatement("evictions.increment()")
+                .endControlFlow()
+                .endControlFlow()
+                .addStatement("int target = maximumSize - maximumSize / 10")
+                .addStatement("it = entries.values().iterator()")
+                .beginControlFlow("while (entries.size() > target && it.hasNext())")
+                .addStatement("it.next()")
+                .addStatement("it.remove()")
+                .addStatement("evictions.increment()")
+                .endControlFlow()
+                .build());
+
+        builder.addMethod(MethodSpec.methodBuilder("evict")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(idType, "id")
+                .addStatement("invalidations.incrementAndGet()")
+                .addStatement("entries.remove(id)")
+                .build());
+
+        builder.addMethod(MethodSpec.methodBuilder("clear")
+                .addModifiers(Modifier.PUBLIC)
+                .addStatement("invalidations.incrementAndGet()")
+                .addStatement("entries.clear()")
+                .build());
+
+        builder.addMethod(MethodSpec.methodBuilder("size")
+                .addModifiers(Modifier.PUBLIC)
+                .returns(TypeName.INT)
+                .addStatement("return entries.size()")
+                .build());
+
+        for (String counter : new String[]{"hits", "misses", "evictions"}) {
+            String getter = "get" + capitalize(counter.equals("hits") ? "hitCount"
+                    : counter.equals("misses") ? "missCount" : "evictionCount");
+            builder.addMethod(MethodSpec.methodBuilder(getter)
+                    .addModifiers(Modifier.PUBLIC)
+                    .returns(TypeName.LONG)
+                    .addStatement("return $N.sum()", counter)
+                    .build());
+        }
+
+        return builder.build();
+    }
+
+    private String kebab(String s) {
+        return s.replaceAll("([a-z0-9])([A-Z])", "$1-$2").toLowerCase();
+    }
+
+    private String capitalize(String s) {
+        if (s == null || s.isEmpty()) return s;
+        return Character.toUpperCase(s.charAt(0)) + s.substring(1);
+    }
+private TypeSpec buildMapper(TypeElement entity, String entitySimple) {
+    String dtoName = entitySimple + "DTO";
+    String mapperName = entitySimple + "Mapper";
+    String entityPkg = model(entity).packageName();
+
+    ClassName entityClass = ClassName.get(entityPkg, entitySimple);
+    ClassName dtoClass = ClassName.get(replaceLastPackageSegment(entityPkg, BASE_PACKAGE_SUFFIX_DTO), dtoName);
+
+    AnnotationSpec mapperAnno = AnnotationSpec.builder(ClassName.get("org.mapstruct", "Mapper"))
+            .addMember("componentModel", "$S", "spring")
+            .addMember("unmappedTargetPolicy", "$T.IGNORE", ClassName.get("org.mapstruct", "ReportingPolicy"))
+            .build();
+
+    TypeSpec.Builder builder = TypeSpec.interfaceBuilder(mapperName)
+            .addAnnotation(mapperAnno)
+            .addModifiers(Modifier.PUBLIC);
+    if (metrics) {
+        builder.addAnnotation(AnnotationSpec.builder(ClassName.get("org.mapstruct", "DecoratedWith"))
+                .addMember("value", "$T.class",
+                        ClassName.get(replaceLastPackageSegment(entityPkg, BASE_PACKAGE_SUFFIX_MAPPER), mapperName + "Metrics"))
+                .build());
+    }
+
+    // ===== toDTO =====
+    MethodSpec.Builder toDto = MethodSpec.methodBuilder("to" + entitySimple + "DTO")
+            .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+            .returns(dtoClass)
+            .addParameter(entityClass, decap(entitySimple));
+
+    for (VariableElement field : model(entity).toOne()) {
+        String fieldName = field.getSimpleName().toString();
+        String target = fieldName.endsWith("Id") ? fieldName : fieldName + "Id";
+        TypeElement relatedEl = model(entity).related().get(field);
+        String relatedId = relatedEl != null ? model(relatedEl).idName() : "id";
+        String source = fieldName + "." + relatedId;
+        toDto.addAnnotation(AnnotationSpec.builder(ClassName.get("org.mapstruct", "Mapping"))
+                .addMember("source", "$S", source)
+                .addMember("target", "$S", target)
+                .build());
+    }
+    MethodSpec toDtoMethod = toDto.build();
+    builder.addMethod(toDtoMethod);
+
+    // ===== toExpandedDTO: same flat properties, the related DTOs are filled in by the service =====
+    List<VariableElement> expandable = expandable(entity);
+    if (!expandable.isEmpty()) {
+        MethodSpec.Builder toExpanded = MethodSpec.methodBuilder("to" + entitySimple + "ExpandedDTO")
+                .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+                .returns(ClassName.get(dtoClass.packageName(), entitySimple + "ExpandedDTO"))
+                .addParameter(entityClass, decap(entitySimple))
+                .addAnnotations(toDtoMethod.annotations);
+        for (VariableElement field : expandable) {
+            toExpanded.addAnnotation(ignoreMapping(field.getSimpleName().toString()));
+        }
+        builder.addMethod(toExpanded.build());
+    }
+
+    // ===== toEntity =====
+    MethodSpec.Builder toEntity = MethodSpec.methodBuilder("to" + entitySimple)
+            .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+            .returns(entityClass)
+            .addParameter(dtoClass, decap(dtoName));
+
+    // Per evitare helper duplicati per lo stesso tipo relazione
+    Set<String> helperGeneratedFor = new HashSet<>();
+
+    for (VariableElement field : model(entity).toOne()) {
+        String fieldName = field.getSimpleName().toString();
+        String sourceIdName = fieldName.endsWith("Id") ? fieldName : fieldName + "Id";
+
+        // Mappiamo <campo>Id (DTO) -> <campo> (Entity)
+        toEntity.addAnnotation(AnnotationSpec.builder(ClassName.get("org.mapstruct", "Mapping"))
+                .addMember("target", "$S", fieldName)
+                .addMember("source", "$S", sourceIdName)
+                .build());
+
+        // Genera helper: IdType -> RelatedEntity (una sola volta per tipo)
+        TypeElement relatedEl = model(entity).related().get(field);
+        if (relatedEl != null) {
+            Optional<VariableElement> relatedIdField = findIdField(relatedEl);
             if (relatedIdField.isPresent()) {
-                String relatedFqn = relatedEl.getQualifiedName().toString();
-                if (helperGeneratedFor.add(relatedFqn)) {
-                    String relatedSimple = relatedEl.getSimpleName().toString();
-                    String relatedPkg = elementUtils.getPackageOf(relatedEl).getQualifiedName().toString();
-                    ClassName relatedClass = ClassName.get(relatedPkg, relatedSimple);
+                ClassName relatedClass = model(relatedEl).className();
+                if (helperGeneratedFor.add(relatedClass.canonicalName())) {
+                    String relatedSimple = relatedClass.simpleName();
+
+                    String idFieldName = relatedIdField.get().getSimpleName().toString();
+                    TypeName idType = model(relatedEl).idType();
+
+                    MethodSpec helper = MethodSpec.methodBuilder("map" + relatedSimple + "FromId")
+                            .addModifiers(Modifier.PUBLIC, Modifier.DEFAULT)
+                            .returns(relatedClass)
+                            .addParameter(idType, "id")
+                            .beginControlFlow("if (id == null)")
+                            .addStatement("return null")
+                            .endControlFlow()
+                            .addStatement("$T e = new $T()", relatedClass, relatedClass)
+                            .addStatement("e.set$L(id)", capitalize(idFieldName))
+                            .addStatement("return e")
+                            .build();
+
+                    builder.addMethod(helper);
+                }
+            } else {
+                warn("Relazione '" + fieldName + "' -> " + relatedEl.getSimpleName() + " senza @Id; non genero helper.", field);
+            }
+        }
+    }
+
+    builder.addMethod(toEntity.build());
+
+    // ===== in-place update of a managed entity (PUT: every property, PATCH: non-null properties only) =====
+    ClassName mappingTarget = ClassName.get("org.mapstruct", "MappingTarget");
+    for (boolean patch : new boolean[]{false, true}) {
+        MethodSpec.Builder update = MethodSpec.methodBuilder((patch ? "patch" : "update") + entitySimple)
+                .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+                .addParameter(patch ? patchDto(entity) : dtoClass, "dto")
+                .addParameter(ParameterSpec.builder(entityClass, decap(entitySimple))
+                        .addAnnotation(mappingTarget)
+                        .build());
+        if (patch) {
+            update.addAnnotation(AnnotationSpec.builder(ClassName.get("org.mapstruct", "BeanMapping"))
+                    .addMember("nullValuePropertyMappingStrategy", "$T.IGNORE",
+                            ClassName.get("org.mapstruct", "NullValuePropertyMappingStrategy"))
+                    .build());
+        }
+        // identity and optimistic-lock version stay under JPA control
+        findIdField(entity).ifPresent(id -> update.addAnnotation(ignoreMapping(id.getSimpleName().toString())));
+        findVersionField(entity).ifPresent(version -> update.addAnnotation(ignoreMapping(version.getSimpleName().toString())));
+        for (VariableElement field : model(entity).toOne()) {
+            String fieldName = field.getSimpleName().toString();
+            update.addAnnotation(AnnotationSpec.builder(ClassName.get("org.mapstruct", "Mapping"))
+                    .addMember("target", "$S", fieldName)
+                    .addMember("source", "$S", fieldName.endsWith("Id") ? fieldName : fieldName + "Id")
+                    .build());
+        }
+        builder.addMethod(update.build());
+    }
+
+    return builder.build();
+}
+
+    // MapStruct decorator timing every mapper call; the generated XMapperImpl extends it and becomes the @Primary bean
+    private TypeSpec buildMapperMetrics(TypeElement entity, String entitySimple, TypeSpec mapper) {
+        String mapperName = entitySimple + "Mapper";
+        String entityPkg = model(entity).packageName();
+        ClassName mapperClass = ClassName.get(replaceLastPackageSegment(entityPkg, BASE_PACKAGE_SUFFIX_MAPPER), mapperName);
+
+        TypeSpec.Builder builder = TypeSpec.classBuilder(mapperName + "Metrics")
+                .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+                .addSuperinterface(mapperClass);
+        builder.addField(FieldSpec.builder(mapperClass, "delegate", Modifier.PRIVATE)
+                .addAnnotation(ClassName.get("org.springframework.beans.factory.annotation", "Autowired"))
+                .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.beans.factory.annotation", "Qualifier"))
+                        .addMember("value", "$S", "delegate")
+                        .build())
+                .build());
+
+        Map<String, String> ops = new LinkedHashMap<>();
+        ops.put("to" + entitySimple + "DTO", "toDto");
+        ops.put("to" + entitySimple + "ExpandedDTO", "toExpandedDto");
+        ops.put("to" + entitySimple, "toEntity");
+        ops.put("update" + entitySimple, "update");
+        ops.put("patch" + entitySimple, "patch");
+        Weaver weaver = new Weaver(builder, entitySimple).time("mapper", ops, false);
+        for (MethodSpec method : mapper.methodSpecs) {
+            if (!method.modifiers.contains(Modifier.ABSTRACT)) continue;
+            MethodSpec.Builder delegate = MethodSpec.methodBuilder(method.name)
+                    .addAnnotation(Override.class)
+                    .addModifiers(Modifier.PUBLIC)
+                    .returns(method.returnType);
+            List<String> args = new ArrayList<>();
+            for (ParameterSpec parameter : method.parameters) {
+                delegate.addParameter(parameter.type, parameter.name);
+                args.add(parameter.name);
+            }
+            delegate.addStatement((method.returnType.equals(TypeName.VOID) ? "" : "return ") + "delegate.$N($L)",
+                    method.name, String.join(", ", args));
+            weaver.add(delegate.build());
+        }
+        weaver.finish(null);
+        return builder.build();
+    }
+
+    private AnnotationSpec ignoreMapping(String target) {
+        return AnnotationSpec.builder(ClassName.get("org.mapstruct", "Mapping"))
+                .addMember("target", "$S", target)
+                .addMember("ignore", "true")
+                .build();
+    }
+
+private TypeSpec buildRepository(TypeElement entity, String entitySimple) {
+        String repoName = entitySimple + "Repository";
+        String entityPkg = model(entity).packageName();
+
+        Optional<VariableElement> idFieldOpt = findIdField(entity);
+        if (idFieldOpt.isEmpty()) {
+            warn("Entity " + entitySimple + " has no @Id; skipping repository.", entity);
+            return TypeSpec.interfaceBuilder(repoName).addModifiers(Modifier.PUBLIC).build();
+        }
+        TypeName idType = model(entity).idType();
+        ClassName entityClass = ClassName.get(entityPkg, entitySimple);
+        ParameterizedTypeName superInterface = ParameterizedTypeName.get(
+                ClassName.get("org.springframework.data.jpa.repository", "JpaRepository"),
+                entityClass,
+                idType
+        );
+
+        String idName = idFieldOpt.get().getSimpleName().toString();
+        ParameterizedTypeName listOfEntity = ParameterizedTypeName.get(ClassName.get(List.class), entityClass);
+        ClassName pageable = ClassName.get("org.springframework.data.domain", "Pageable");
+
+        TypeSpec.Builder builder = TypeSpec.interfaceBuilder(repoName)
+                .addModifiers(Modifier.PUBLIC)
+                .addSuperinterface(superInterface)
+                .addAnnotation(ClassName.get("org.springframework.stereotype", "Repository"));
+        if (projectionQuery(entity).isEmpty()) {
+            // Keyset pagination: first page and "seek" past the last seen id, without COUNT queries (projected
+            // entities use findProjectedFirst/findProjectedAfter instead)
+            builder.addMethod(MethodSpec.methodBuilder("findAllBy")
+                            .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+                            .returns(listOfEntity)
+                            .addParameter(pageable, "pageable")
+                            .build())
+                    .addMethod(MethodSpec.methodBuilder("findBy" + capitalize(idName) + "GreaterThan")
+                            .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+                            .returns(listOfEntity)
+                            .addParameter(idType, idName)
+                            .addParameter(pageable, "pageable")
+                            .build());
+        }
+        if (!filterable(entity).isEmpty()) {
+            builder.addSuperinterface(ParameterizedTypeName.get(
+                    ClassName.get("org.springframework.data.jpa.repository", "JpaSpecificationExecutor"), entityClass));
+        }
+
+        List<VariableElement> expandable = expandable(entity);
+        if (!expandable.isEmpty()) {
+            // ?expand= on list pages: one fetch plan per relation, plus one with all of them; to-one joins keep the paging
+            // in SQL. Single rows use a dynamic graph in the service (derived queries on the id fail with generic ids).
+            Map<String, List<String>> plans = new LinkedHashMap<>();
+            for (VariableElement field : expandable) {
+                plans.put("With" + capitalize(field.getSimpleName().toString()), List.of(field.getSimpleName().toString()));
+            }
+            if (expandable.size() > 1) {
+                plans.put("Expanded", expandable.stream().map(f -> f.getSimpleName().toString()).toList());
+            }
+            plans.forEach((plan, paths) -> {
+                AnnotationSpec graph = AnnotationSpec.builder(ClassName.get("org.springframework.data.jpa.repository", "EntityGraph"))
+                        .addMember("attributePaths", "{$L}", CodeBlock.join(paths.stream().map(path -> CodeBlock.of("$S", path)).toList(), ", "))
+                        .build();
+                builder.addMethod(MethodSpec.methodBuilder("find" + plan + "By")
+                        .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+                        .addAnnotation(graph)
+                        .returns(ParameterizedTypeName.get(ClassName.get("org.springframework.data.domain", "Page"), entityClass))
+                        .addParameter(pageable, "pageable")
+                        .build());
+            });
+        }
+
+        // batch deletes: the ids of the chunk that exist, so missing ones are reported instead of silently skipped
+        builder.addMethod(MethodSpec.methodBuilder("findExistingIds")
+                .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+                .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.data.jpa.repository", "Query"))
+                        .addMember("value", "$S", "select e." + idName + " from " + model(entity).entityName()
+                                + " e where e." + idName + " in :ids")
+                        .build())
+                .returns(ParameterizedTypeName.get(ClassName.get(List.class), idType.box()))
+                .addParameter(ParameterSpec.builder(ParameterizedTypeName.get(ClassName.get(Collection.class), idType.box()), "ids")
+                        .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.data.repository.query", "Param"))
+                                .addMember("value", "$S", "ids")
+                                .build())
+                        .build())
+                .build());
+
+        Optional<VariableElement> versionField = findConcurrencyField(entity);
+        if (versionField.isPresent()) {
+            // version-only lookup for conditional requests: no entity, no DTO
+            builder.addMethod(MethodSpec.methodBuilder("findVersionById")
+                    .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+                    .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.data.jpa.repository", "Query"))
+                            .addMember("value", "$S", "select e." + versionField.get().getSimpleName() + " from "
+                                    + model(entity).entityName() + " e where e." + idName + " = :id")
+                            .build())
+                    .returns(ParameterizedTypeName.get(ClassName.get(Optional.class), model(entity).typeOf(versionField.get()).box()))
+                    .addParameter(ParameterSpec.builder(idType, "id")
+                            .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.data.repository.query", "Param"))
+                                    .addMember("value", "$S", "id")
+                                    .build())
+                            .build())
+                    .build());
+        }
+
+        Optional<ChangeFeed> feed = changeFeed(entity);
+        if (feed.isPresent()) {
+            // change feed: keyset range over (last-modified, id), served by an index on those two columns; DTO rows when
+            // the projection is available
+            String column = "e." + feed.get().timestamp().name();
+            String from = projectionQuery(entity).orElse("select e from " + model(entity).entityName() + " e");
+            String order = " order by " + column + ", e." + idName;
+            TypeName rows = ParameterizedTypeName.get(ClassName.get(List.class), projectionQuery(entity).isPresent()
+                    ? ClassName.get(model(entity).packageFor(BASE_PACKAGE_SUFFIX_DTO), entitySimple + "DTO") : entityClass);
+            ClassName query = ClassName.get("org.springframework.data.jpa.repository", "Query");
+            ClassName param = ClassName.get("org.springframework.data.repository.query", "Param");
+            builder.addMethod(MethodSpec.methodBuilder("findChangesFirst")
+                    .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+                    .addAnnotation(AnnotationSpec.builder(query)
+                            .addMember("value", "$S", from + " where " + column + " is not null" + order)
+                            .build())
+                    .returns(rows)
+                    .addParameter(pageable, "pageable")
+                    .build());
+            builder.addMethod(MethodSpec.methodBuilder("findChangesSince")
+                    .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+                    .addAnnotation(AnnotationSpec.builder(query)
+                            .addMember("value", "$S", from + " where " + column + " > :since or (" + column + " = :since and e."
+                                    + idName + " > :after)" + order)
+                            .build())
+                    .returns(rows)
+                    .addParameter(ParameterSpec.builder(feed.get().timestamp().type(), "since")
+                            .addAnnotation(AnnotationSpec.builder(param).addMember("value", "$S", "since").build())
+                            .build())
+                    .addParameter(ParameterSpec.builder(idType, "after")
+                            .addAnnotation(AnnotationSpec.builder(param).addMember("value", "$S", "after").build())
+                            .build())
+                    .addParameter(pageable, "pageable")
+                    .build());
+        }
+
+        Optional<String> projection = projectionQuery(entity);
+        if (projection.isPresent()) {
+            // DTO projections: read paths select the DTO columns directly, no managed entity is hydrated
+            String select = projection.get();
+            ClassName dtoClass = ClassName.get(replaceLastPackageSegment(entityPkg, BASE_PACKAGE_SUFFIX_DTO), entitySimple + "DTO");
+            ParameterizedTypeName listOfDto = ParameterizedTypeName.get(ClassName.get(List.class), dtoClass);
+            ClassName query = ClassName.get("org.springframework.data.jpa.repository", "Query");
+            ClassName param = ClassName.get("org.springframework.data.repository.query", "Param");
+
+            builder.addMethod(MethodSpec.methodBuilder("findAllProjected")
+                    .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+                    .addAnnotation(AnnotationSpec.builder(query)
+                            .addMember("value", "$S", select)
+                            .addMember("countQuery", "$S", "select count(e) from " + model(entity).entityName() + " e")
+                            .build())
+                    .returns(ParameterizedTypeName.get(ClassName.get("org.springframework.data.domain", "Page"), dtoClass))
+                    .addParameter(pageable, "pageable")
+                    .build());
+            builder.addMethod(MethodSpec.methodBuilder("findProjectedById")
+                    .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+                    .addAnnotation(AnnotationSpec.builder(query)
+                            .addMember("value", "$S", select + " where e." + idName + " = :id")
+                            .build())
+                    .returns(ParameterizedTypeName.get(ClassName.get(Optional.class), dtoClass))
+                    .addParameter(ParameterSpec.builder(idType, "id")
+                            .addAnnotation(AnnotationSpec.builder(param).addMember("value", "$S", "id").build())
+                            .build())
+                    .build());
+            builder.addMethod(MethodSpec.methodBuilder("findProjectedFirst")
+                    .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+                    .addAnnotation(AnnotationSpec.builder(query).addMember("value", "$S", select).build())
+                    .returns(listOfDto)
+                    .addParameter(pageable, "pageable")
+                    .build());
+            builder.addMethod(MethodSpec.methodBuilder("findProjectedAfter")
+                    .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+                    .addAnnotation(AnnotationSpec.builder(query)
+                            .addMember("value", "$S", select + " where e." + idName + " > :after")
+                            .build())
+                    .returns(listOfDto)
+                    .addParameter(ParameterSpec.builder(idType, "after")
+                            .addAnnotation(AnnotationSpec.builder(param).addMember("value", "$S", "after").build())
+                            .build())
+                    .addParameter(pageable, "pageable")
+                    .build());
+        }
+
+        if (streaming) {
+            // Cursor-backed stream: rows are fetched from JDBC in chunks instead of materialising the table
+            ClassName queryHint = ClassName.get("jakarta.persistence", "QueryHint");
+            builder.addMethod(MethodSpec.methodBuilder("streamAllBy")
+                    .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+                    .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.data.jpa.repository", "QueryHints"))
+                            .addMember("value", "{ $L, $L }",
+                                    AnnotationSpec.builder(queryHint)
+                                            .addMember("name", "$S", "org.hibernate.fetchSize")
+                                            .addMember("value", "$S", String.valueOf(streamFetchSize))
+                                            .build(),
+                                    AnnotationSpec.builder(queryHint)
+                                            .addMember("name", "$S", "org.hibernate.readOnly")
+                                            .addMember("value", "$S", "true")
+                                            .build())
+                            .build())
+                    .returns(ParameterizedTypeName.get(ClassName.get("java.util.stream", "Stream"), entityClass))
+                    .build());
+        }
+
+        return builder.build();
+    }
+
+    private TypeSpec buildService(TypeElement entity, String entitySimple) {
+        String serviceName = entitySimple + "Service";
+        String dtoName = entitySimple + "DTO";
+        String repoName = entitySimple + "Repository";
+        String mapperName = entitySimple + "Mapper";
+
+        String entityPkg = model(entity).packageName();
+
+        ClassName entityClass = ClassName.get(entityPkg, entitySimple);
+        ClassName dtoClass = ClassName.get(replaceLastPackageSegment(entityPkg, BASE_PACKAGE_SUFFIX_DTO), dtoName);
+        ClassName repoClass = ClassName.get(replaceLastPackageSegment(entityPkg, BASE_PACKAGE_SUFFIX_REPO), repoName);
+        ClassName mapperClass = ClassName.get(replaceLastPackageSegment(entityPkg, BASE_PACKAGE_SUFFIX_MAPPER), mapperName);
+
+        Optional<VariableElement> idFieldOpt = findIdField(entity);
+        String idFieldName = idFieldOpt.map(VariableElement::getSimpleName).map(Object::toString).orElse("id");
+        TypeName idType = model(entity).idType();
+
+        TypeSpec.Builder builder = TypeSpec.classBuilder(serviceName)
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(ClassName.get("org.springframework.stereotype", "Service"));
+
+        builder.addField(FieldSpec.builder(repoClass, decap(repoName), Modifier.PRIVATE, Modifier.FINAL).build());
+        builder.addField(FieldSpec.builder(mapperClass, decap(mapperName), Modifier.PRIVATE, Modifier.FINAL).build());
+        builder.addField(FieldSpec.builder(TypeName.INT, "maxPageSize", Modifier.PRIVATE, Modifier.FINAL).build());
+        ClassName transactionTemplate = ClassName.get("org.springframework.transaction.support", "TransactionTemplate");
+        builder.addField(FieldSpec.builder(transactionTemplate, "transactionTemplate", Modifier.PRIVATE, Modifier.FINAL).build());
+        builder.addField(FieldSpec.builder(TypeName.INT, "batchChunkSize", Modifier.PRIVATE, Modifier.FINAL).build());
+        builder.addField(FieldSpec.builder(TypeName.BOOLEAN, "batchAtomic", Modifier.PRIVATE, Modifier.FINAL).build());
+        builder.addField(FieldSpec.builder(ClassName.get("jakarta.persistence", "EntityManager"), "entityManager", Modifier.PRIVATE)
+                .addAnnotation(ClassName.get("jakarta.persistence", "PersistenceContext"))
+                .build());
+
+        boolean cached = isCached(entity);
+        String cacheName = entitySimple + "Cache";
+        ClassName cacheClass = ClassName.get(replaceLastPackageSegment(entityPkg, BASE_PACKAGE_SUFFIX_SERVICE), cacheName);
+
+        ClassName valueAnno = ClassName.get("org.springframework.beans.factory.annotation", "Value");
+        MethodSpec.Builder constructor = MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(repoClass, decap(repoName))
+                .addParameter(mapperClass, decap(mapperName))
+                .addParameter(ClassName.get("org.springframework.transaction", "PlatformTransactionManager"), "transactionManager")
+                .addParameter(ParameterSpec.builder(TypeName.INT, "maxPageSize")
+                        .addAnnotation(AnnotationSpec.builder(valueAnno)
+                                .addMember("value", "$S", "${springsmith.pagination.max-page-size:" + maxPageSize + "}")
+                                .build())
+                        .build())
+                .addParameter(ParameterSpec.builder(TypeName.INT, "batchChunkSize")
+                        .addAnnotation(AnnotationSpec.builder(valueAnno)
+                                .addMember("value", "$S", "${springsmith.batch.chunk-size:" + batchChunkSize + "}")
+                                .build())
+                        .build())
+                .addParameter(ParameterSpec.builder(TypeName.BOOLEAN, "batchAtomic")
+                        .addAnnotation(AnnotationSpec.builder(valueAnno)
+                                .addMember("value", "$S", "${springsmith.batch.atomic:true}")
+                                .build())
+                        .build())
+                .addStatement("this.$N = $N", decap(repoName), decap(repoName))
+                .addStatement("this.$N = $N", decap(mapperName), decap(mapperName))
+                .addStatement("this.maxPageSize = maxPageSize")
+                .addStatement("this.transactionTemplate = new $T(transactionManager)", transactionTemplate)
+                .addStatement("this.batchChunkSize = batchChunkSize")
+                .addStatement("this.batchAtomic = batchAtomic")
+                .beginControlFlow("if (!batchAtomic)")
+                .addComment("every chunk commits on its own, even when called inside an outer transaction")
+                .addStatement("this.transactionTemplate.setPropagationBehavior($T.PROPAGATION_REQUIRES_NEW)",
+                        ClassName.get("org.springframework.transaction", "TransactionDefinition"))
+                .endControlFlow();
+        if (cached) {
+            builder.addField(FieldSpec.builder(cacheClass, decap(cacheName), Modifier.PRIVATE, Modifier.FINAL).build());
+            builder.addField(FieldSpec.builder(transactionTemplate, "readTransaction", Modifier.PRIVATE, Modifier.FINAL).build());
+            constructor.addParameter(cacheClass, decap(cacheName))
+                    .addStatement("this.$N = $N", decap(cacheName), decap(cacheName))
+                    .addStatement("this.readTransaction = new $T(transactionManager)", transactionTemplate)
+                    .addStatement("this.readTransaction.setReadOnly(true)");
+        }
+        // mappers of the expandable relations (mappers have no dependencies on services: no cycles)
+        List<VariableElement> expandable = expandable(entity);
+        Map<VariableElement, String> relatedMappers = new LinkedHashMap<>();
+        for (VariableElement field : expandable) {
+            TypeElement related = model(entity).related().get(field);
+            String relatedMapper = related.getSimpleName() + "Mapper";
+            if (!related.equals(entity) && builder.fieldSpecs.stream().noneMatch(f -> f.name.equals(decap(relatedMapper)))) {
+                ClassName relatedMapperClass = ClassName.get(model(related).packageFor(BASE_PACKAGE_SUFFIX_MAPPER), relatedMapper);
+                builder.addField(FieldSpec.builder(relatedMapperClass, decap(relatedMapper), Modifier.PRIVATE, Modifier.FINAL).build());
+                constructor.addParameter(relatedMapperClass, decap(relatedMapper))
+                        .addStatement("this.$N = $N", decap(relatedMapper), decap(relatedMapper));
+            }
+            relatedMappers.put(field, decap(relatedMapper));
+        }
+        Weaver weaver = new Weaver(builder, entitySimple);
+        if (metrics) {
+            weaver.time("service", null, true);
+        }
+
+        // reads select straight into the DTO when the entity allows it (see projectionQuery)
+        boolean projected = projectionQuery(entity).isPresent();
+        AnnotationSpec readOnly = AnnotationSpec.builder(ClassName.get("org.springframework.transaction.annotation", "Transactional"))
+                .addMember("readOnly", "true")
+                .build();
+        // writes run in one read-write transaction, relation lookups of the mapper included (readReplica: on the primary)
+        AnnotationSpec readWrite = AnnotationSpec.builder(ClassName.get("org.springframework.transaction.annotation", "Transactional")).build();
+
+        ClassName pageable = ClassName.get("org.springframework.data.domain", "Pageable");
+        ClassName pageRequest = ClassName.get("org.springframework.data.domain", "PageRequest");
+        ClassName sort = ClassName.get("org.springframework.data.domain", "Sort");
+
+        // ===== offset pagination =====
+        MethodSpec.Builder findPage = MethodSpec.methodBuilder("findAll")
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(readOnly)
+                .returns(ParameterizedTypeName.get(ClassName.get("org.springframework.data.domain", "Page"), dtoClass))
+                .addParameter(pageable, "pageable");
+        if (projected) {
+            findPage.addStatement("return $N.findAllProjected(limit(pageable))", decap(repoName));
+        } else {
+            findPage.addStatement("return $N.findAll(limit(pageable)).map($N::to$LDTO)",
+                    decap(repoName), decap(mapperName), entitySimple);
+        }
+        weaver.add(findPage.build());
+
+        // ===== filtered pages: the specification goes to SQL together with paging and sort =====
+        ClassName filterClass = ClassName.get(dtoClass.packageName(), entitySimple + "Filter");
+        boolean filtered = !filterable(entity).isEmpty();
+        if (filtered) {
+            weaver.add(MethodSpec.methodBuilder("findAll")
+                    .addModifiers(Modifier.PUBLIC)
+                    .addAnnotation(readOnly)
+                    .returns(ParameterizedTypeName.get(ClassName.get("org.springframework.data.domain", "Page"), dtoClass))
+                    .addParameter(pageable, "pageable")
+                    .addParameter(filterClass, "filter")
+                    .addStatement("return $N.findAll(filter.toSpecification(), limit(pageable)).map($N::to$LDTO)",
+                            decap(repoName), decap(mapperName), entitySimple)
+                    .build());
+        }
+
+        // ===== ?fields=: tuple queries selecting only the requested columns, no entity and no mapper =====
+        List<DtoField> sparse = sparse(entity);
+        if (!sparse.isEmpty()) {
+            String criteria = "jakarta.persistence.criteria";
+            ClassName tuple = ClassName.get("jakarta.persistence", "Tuple");
+            ClassName root = ClassName.get(criteria, "Root");
+            TypeName rootOfEntity = ParameterizedTypeName.get(root, entityClass);
+            TypeName tupleQuery = ParameterizedTypeName.get(ClassName.get(criteria, "CriteriaQuery"), tuple);
+            TypeName fieldSet = ParameterizedTypeName.get(ClassName.get(Set.class), ClassName.get(String.class));
+            ClassName partialClass = ClassName.get(dtoClass.packageName(), entitySimple + "PartialDTO");
+
+            MethodSpec.Builder findSparse = MethodSpec.methodBuilder("findSparse")
+                    .addModifiers(Modifier.PUBLIC)
+                    .addAnnotation(readOnly)
+                    .returns(ParameterizedTypeName.get(ClassName.get("org.springframework.data.domain", "Page"), dtoClass))
+                    .addParameter(pageable, "pageable");
+            if (filtered) {
+                findSparse.addParameter(filterClass, "filter");
+            }
+            findSparse.addParameter(fieldSet, "fields")
+                    .addStatement("$T limited = limit(pageable)", pageable)
+                    .addStatement("$T cb = entityManager.getCriteriaBuilder()", ClassName.get(criteria, "CriteriaBuilder"))
+                    .addStatement("$T query = cb.createTupleQuery()", tupleQuery)
+                    .addStatement("$T root = query.from($T.class)", rootOfEntity, entityClass)
+                    .addStatement("query.multiselect(columns(root, fields))");
+            if (filtered) {
+                findSparse.addStatement("query.where(filter.toSpecification().toPredicate(root, query, cb))");
+            }
+            findSparse.addStatement("query.orderBy($T.toOrders(limited.getSort(), root, cb))",
+                            ClassName.get("org.springframework.data.jpa.repository.query", "QueryUtils"))
+                    .addStatement("$T content = entityManager.createQuery(query)\n.setFirstResult((int) limited.getOffset())"
+                                    + "\n.setMaxResults(limited.getPageSize())\n.getResultList().stream()\n.map(row -> partial(row, fields))\n.toList()",
+                            ParameterizedTypeName.get(ClassName.get(List.class), dtoClass))
+                    .addStatement("$T count = cb.createQuery($T.class)",
+                            ParameterizedTypeName.get(ClassName.get(criteria, "CriteriaQuery"), ClassName.get(Long.class)), Long.class)
+                    .addStatement("$T counted = count.from($T.class)", rootOfEntity, entityClass)
+                    .addStatement("count.select(cb.count(counted))");
+            if (filtered) {
+                findSparse.addStatement("count.where(filter.toSpecification().toPredicate(counted, count, cb))");
+            }
+            findSparse.addStatement("return $T.getPage(content, limited, () -> entityManager.createQuery(count).getSingleResult())",
+                    ClassName.get("org.springframework.data.support", "PageableExecutionUtils"));
+            weaver.add(findSparse.build());
+
+            weaver.add(MethodSpec.methodBuilder("findSparseById")
+                    .addModifiers(Modifier.PUBLIC)
+                    .addAnnotation(readOnly)
+                    .returns(dtoClass)
+                    .addParameter(idType, idFieldName)
+                    .addParameter(fieldSet, "fields")
+                    .addStatement("$T cb = entityManager.getCriteriaBuilder()", ClassName.get(criteria, "CriteriaBuilder"))
+                    .addStatement("$T query = cb.createTupleQuery()", tupleQuery)
+                    .addStatement("$T root = query.from($T.class)", rootOfEntity, entityClass)
+                    .addStatement("query.multiselect(columns(root, fields)).where(cb.equal(root.get($S), $N))", idFieldName, idFieldName)
+                    .addStatement("return entityManager.createQuery(query).getResultList().stream()\n.findFirst()"
+                                    + "\n.map(row -> partial(row, fields))\n.orElseThrow(() -> new $T($S + $N))",
+                            ClassName.get("jakarta.persistence", "EntityNotFoundException"),
+                            entitySimple + " not found with id ", idFieldName)
+                    .build());
+
+            // relation ids are read from the foreign key column, rows with a null relation are kept
+            MethodSpec.Builder columns = MethodSpec.methodBuilder("columns")
+                    .addModifiers(Modifier.PRIVATE)
+                    .returns(ParameterizedTypeName.get(ClassName.get(List.class),
+                            ParameterizedTypeName.get(ClassName.get(criteria, "Selection"), WildcardTypeName.subtypeOf(Object.class))))
+                    .addParameter(rootOfEntity, "root")
+                    .addParameter(fieldSet, "fields")
+                    .addStatement("$T columns = new $T<>()",
+                            ParameterizedTypeName.get(ClassName.get(List.class),
+                                    ParameterizedTypeName.get(ClassName.get(criteria, "Selection"), WildcardTypeName.subtypeOf(Object.class))),
+                            ArrayList.class);
+            MethodSpec.Builder partial = MethodSpec.methodBuilder("partial")
+                    .addModifiers(Modifier.PRIVATE)
+                    .returns(dtoClass)
+                    .addParameter(tuple, "row")
+                    .addParameter(fieldSet, "fields")
+                    .addStatement("$T dto = new $T(fields)", partialClass, partialClass);
+            for (DtoField field : sparse) {
+                CodeBlock path = field.relation() == null
+                        ? CodeBlock.of("root.get($S)", field.path())
+                        : CodeBlock.of("root.get($S).get($S)", field.relation(), field.path());
+                columns.beginControlFlow("if (fields.contains($S))", field.name())
+                        .addStatement("columns.add($L.alias($S))", path, field.name())
+                        .endControlFlow();
+                partial.beginControlFlow("if (fields.contains($S))", field.name())
+                        .addStatement("dto.set$L(($T) row.get($S))", capitalize(field.name()), field.type(), field.name())
+                        .endControlFlow();
+            }
+            weaver.add(columns.addStatement("return columns").build());
+            weaver.add(partial.addStatement("return dto").build());
+        }
+
+        // ===== keyset pagination, ordered by id =====
+        MethodSpec.Builder findAfter = MethodSpec.methodBuilder("findAfter")
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(readOnly)
+                .returns(ParameterizedTypeName.get(ClassName.get(List.class), dtoClass))
+                .addParameter(idType, "after")
+                .addParameter(TypeName.INT, "size")
+                .addStatement("$T pageable = $T.of(0, $T.min($T.max(size, 1), maxPageSize), $T.by($S))",
+                        pageable, pageRequest, Math.class, Math.class, sort, idFieldName);
+        if (projected) {
+            findAfter.addStatement("return after == null ? $N.findProjectedFirst(pageable) : $N.findProjectedAfter(after, pageable)",
+                    decap(repoName), decap(repoName));
+        } else {
+            findAfter.addStatement("$T entities = after == null ? $N.findAllBy(pageable) : $N.findBy$LGreaterThan(after, pageable)",
+                            ParameterizedTypeName.get(ClassName.get(List.class), entityClass),
+                            decap(repoName), decap(repoName), capitalize(idFieldName))
+                    .addStatement("return entities.stream().map($N::to$LDTO).collect($T.toList())",
+                            decap(mapperName), entitySimple, ClassName.get("java.util.stream", "Collectors"));
+        }
+        weaver.add(findAfter.build());
+
+        Optional<ChangeFeed> feed = changeFeed(entity);
+        if (feed.isPresent()) {
+            // ===== change feed: rows modified after the cursor, oldest first; the cursor is "<last-modified>,<id>" =====
+            ClassName changesClass = ClassName.get(replaceLastPackageSegment(entityPkg, BASE_PACKAGE_SUFFIX_DTO), entitySimple + "ChangesDTO");
+            ClassName base64 = ClassName.get("java.util", "Base64");
+            ClassName utf8 = ClassName.get("java.nio.charset", "StandardCharsets");
+            DtoField timestamp = feed.get().timestamp();
+            DtoField tombstone = feed.get().tombstone();
+            TypeName listOfDto = ParameterizedTypeName.get(ClassName.get(List.class), dtoClass);
+            TypeName boxedId = idType.box();
+            CodeBlock parseId = boxedId.equals(ClassName.get(String.class)) ? CodeBlock.of("cursor.substring(separator + 1)")
+                    : CodeBlock.of("$T.$L(cursor.substring(separator + 1))", boxedId,
+                    boxedId.equals(ClassName.get("java.util", "UUID")) ? "fromString" : "valueOf");
+            MethodSpec.Builder findChanges = MethodSpec.methodBuilder("findChanges")
+                    .addModifiers(Modifier.PUBLIC)
+                    .addAnnotation(readOnly)
+                    .returns(changesClass)
+                    .addParameter(String.class, "since")
+                    .addParameter(TypeName.INT, "size")
+                    .addStatement("int limit = $T.min($T.max(size, 1), maxPageSize)", Math.class, Math.class)
+                    .addComment("one extra row tells whether another page follows")
+                    .addStatement("$T pageable = $T.of(0, limit + 1)", pageable, pageRequest)
+                    .addStatement("$T rows", projected ? listOfDto : ParameterizedTypeName.get(ClassName.get(List.class), entityClass))
+                    .beginControlFlow("if (since == null || since.isEmpty())")
+                    .addStatement("rows = $N.findChangesFirst(pageable)", decap(repoName))
+                    .nextControlFlow("else")
+                    .addStatement("$T sinceValue", timestamp.type())
+                    .addStatement("$T after", idType)
+                    .beginControlFlow("try")
+                    .addStatement("String cursor = new String($T.getUrlDecoder().decode(since), $T.UTF_8)", base64, utf8)
+                    .addStatement("int separator = cursor.indexOf(',')")
+                    .addStatement("sinceValue = $T.parse(cursor.substring(0, separator))", timestamp.type())
+                    .addStatement("after = $L", parseId)
+                    .nextControlFlow("catch ($T ex)", RuntimeException.class)
+                    .addStatement("throw new $T($S + since, ex)", IllegalArgumentException.class, "Invalid change token: ")
+                    .endControlFlow()
+                    .addStatement("rows = $N.findChangesSince(sinceValue, after, pageable)", decap(repoName))
+                    .endControlFlow();
+            if (projected) {
+                findChanges.addStatement("$T dtos = rows.size() > limit ? rows.subList(0, limit) : rows", listOfDto);
+            } else {
+                findChanges.addStatement("$T dtos = rows.stream().limit(limit).map($N::to$LDTO).collect($T.toList())",
+                        listOfDto, decap(mapperName), entitySimple, ClassName.get("java.util.stream", "Collectors"));
+            }
+            findChanges.addStatement("String next = since")
+                    .beginControlFlow("if (!dtos.isEmpty())")
+                    .addStatement("$T last = dtos.get(dtos.size() - 1)", dtoClass)
+                    .addStatement("next = $T.getUrlEncoder().withoutPadding().encodeToString((last.$L() + \",\" + last.$L()).getBytes($T.UTF_8))",
+                            base64, getterName(timestamp.name(), timestamp.type()), getterName(idFieldName, idType), utf8)
+                    .endControlFlow();
+            if (tombstone == null) {
+                findChanges.addStatement("return new $T(dtos, next, rows.size() > limit)", changesClass);
+            } else {
+                findChanges.addStatement("$T changed = new $T<>()", listOfDto, ArrayList.class)
+                        .addStatement("$T deleted = new $T<>()", ParameterizedTypeName.get(ClassName.get(List.class), boxedId), ArrayList.class)
+                        .beginControlFlow("for ($T dto : dtos)", dtoClass)
+                        .beginControlFlow("if ($T.TRUE.equals(dto.$L()))", Boolean.class, getterName(tombstone.name(), tombstone.type()))
+                        .addStatement("deleted.add(dto.$L())", getterName(idFieldName, idType))
+                        .nextControlFlow("else")
+                        .addStatement("changed.add(dto)")
+                        .endControlFlow()
+                        .endControlFlow()
+                        .addStatement("return new $T(changed, deleted, next, rows.size() > limit)", changesClass);
+            }
+            weaver.add(findChanges.build());
+        }
+
+        if (streaming) {
+            // ===== streaming export: constant memory, the persistence context is cleared every fetch chunk =====
+            TypeName entityStream = ParameterizedTypeName.get(ClassName.get("java.util.stream", "Stream"), entityClass);
+            MethodSpec streamAll = MethodSpec.methodBuilder("streamAll")
+                    .addModifiers(Modifier.PUBLIC)
+                    .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.transaction.annotation", "Transactional"))
+                            .addMember("readOnly", "true")
+                            .build())
+                    .addParameter(ParameterizedTypeName.get(ClassName.get("java.util.function", "Consumer"), dtoClass), "consumer")
+                    .beginControlFlow("try ($T entities = $N.streamAllBy())", entityStream, decap(repoName))
+                    .addStatement("$T it = entities.iterator()",
+                            ParameterizedTypeName.get(ClassName.get("java.util", "Iterator"), entityClass))
+                    .addStatement("int count = 0")
+                    .beginControlFlow("while (it.hasNext())")
+                    .addStatement("consumer.accept($N.to$LDTO(it.next()))", decap(mapperName), entitySimple)
+                    .beginControlFlow("if (++count % $L == 0)", streamFetchSize)
+                    .addStatement("entityManager.clear()")
+                    .endControlFlow()
+                    .endControlFlow()
+                    .endControlFlow()
+                    .build();
+            weaver.add(streamAll);
+        }
+
+        MethodSpec.Builder limit = MethodSpec.methodBuilder("limit")
+                .addModifiers(Modifier.PRIVATE)
+                .returns(pageable)
+                .addParameter(pageable, "pageable")
+                .beginControlFlow("if (pageable.isUnpaged())")
+                .addStatement("return $T.of(0, maxPageSize)", pageRequest)
+                .endControlFlow();
+        List<DtoField> relationIds = dtoFields(entity).stream().filter(f -> f.relation() != null).toList();
+        if (relationIds.isEmpty()) {
+            limit.beginControlFlow("if (pageable.getPageSize() > maxPageSize)")
+                    .addStatement("return $T.of(pageable.getPageNumber(), maxPageSize, pageable.getSort())", pageRequest)
+                    .endControlFlow()
+                    .addStatement("return pageable");
+        } else {
+            // ?sort=authorId: relation ids are DTO properties only, the query sorts on the association (author.id)
+            TypeName stringMap = ParameterizedTypeName.get(ClassName.get(Map.class), ClassName.get(String.class), ClassName.get(String.class));
+            builder.addField(FieldSpec.builder(stringMap, "SORT_PATHS", Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                    .initializer("$T.of($L)", Map.class, CodeBlock.join(relationIds.stream()
+                            .map(f -> CodeBlock.of("$S, $S", f.name(), f.relation() + "." + f.path()))
+                            .toList(), ", "))
+                    .build());
+            limit.addStatement("$T sort = $T.by(pageable.getSort().stream()\n$>.map(order -> order.withProperty(SORT_PATHS.getOrDefault(order.getProperty(), order.getProperty())))\n.toList())$<",
+                            sort, sort)
+                    .addStatement("return $T.of(pageable.getPageNumber(), $T.min(pageable.getPageSize(), maxPageSize), sort)",
+                            pageRequest, Math.class);
+        }
+        weaver.add(limit.build());
+
+        MethodSpec.Builder findById = MethodSpec.methodBuilder("findById")
+                .addModifiers(Modifier.PUBLIC)
+                .returns(dtoClass)
+                .addParameter(idType, idFieldName);
+        CodeBlock load = projected
+                ? CodeBlock.of("$N.findProjectedById($N).orElseThrow(() -> new $T($S + $N))",
+                        decap(repoName), idFieldName, ClassName.get("jakarta.persistence", "EntityNotFoundException"),
+                        entitySimple + " not found with id ", idFieldName)
+                : CodeBlock.of("$N.to$LDTO($N.findById($N).orElseThrow(() -> new $T($S + $N)))",
+                        decap(mapperName), entitySimple, decap(repoName), idFieldName,
+                        ClassName.get("jakarta.persistence", "EntityNotFoundException"),
+                        entitySimple + " not found with id ", idFieldName);
+        if (cached) {
+            // no @Transactional: a cache hit must not take a JDBC connection. A miss opens its own read-only transaction
+            // (query and mapping), so with springsmith.readReplica it goes to the replica
+            findById.addStatement("$T cached = $N.get($N)", dtoClass, decap(cacheName), idFieldName)
+                    .beginControlFlow("if (cached != null)")
+                    .addStatement("return cached")
+                    .endControlFlow()
+                    .addComment("taken before the load: put() drops the DTO if an eviction ran in between")
+                    .addStatement("long stamp = $N.stamp()", decap(cacheName))
+                    .addStatement("$T dto = readTransaction.execute(status ->$W$L)", dtoClass, load)
+                    .addStatement("$N.put($N, dto, stamp)", decap(cacheName), idFieldName);
+        } else {
+            findById.addAnnotation(readOnly)
+                    .addStatement("$T dto = $L", dtoClass, load);
+        }
+        findById.addStatement("return dto");
+        weaver.add(findById.build());
+
+        if (!expandable.isEmpty()) {
+            // ===== ?expand=: entity graph fetch, no projection and no cache =====
+            ClassName expandedClass = ClassName.get(dtoClass.packageName(), entitySimple + "ExpandedDTO");
+            TypeName expandSet = ParameterizedTypeName.get(ClassName.get(Set.class), ClassName.get(String.class));
+            MethodSpec.Builder findAllExpanded = MethodSpec.methodBuilder("findAll")
+                    .addModifiers(Modifier.PUBLIC)
+                    .addAnnotation(readOnly)
+                    .returns(ParameterizedTypeName.get(ClassName.get("org.springframework.data.domain", "Page"), dtoClass))
+                    .addParameter(pageable, "pageable")
+                    .addParameter(expandSet, "expand")
+                    .addStatement("$T limited = limit(pageable)", pageable)
+                    .addStatement("$T entities", ParameterizedTypeName.get(ClassName.get("org.springframework.data.domain", "Page"), entityClass));
+            ClassName entityGraph = ClassName.get("jakarta.persistence", "EntityGraph");
+            MethodSpec findByIdExpanded = MethodSpec.methodBuilder("findById")
+                    .addModifiers(Modifier.PUBLIC)
+                    .addAnnotation(readOnly)
+                    .returns(dtoClass)
+                    .addParameter(idType, idFieldName)
+                    .addParameter(expandSet, "expand")
+                    .addStatement("$T graph = entityManager.createEntityGraph($T.class)",
+                            ParameterizedTypeName.get(entityGraph, entityClass), entityClass)
+                    .addStatement("graph.addAttributeNodes(expand.toArray(new $T[0]))", String.class)
+                    .addStatement("$T entity = entityManager.find($T.class, $N, $T.of($S, graph))",
+                            entityClass, entityClass, idFieldName, Map.class, "jakarta.persistence.fetchgraph")
+                    .beginControlFlow("if (entity == null)")
+                    .addStatement("throw new $T($S + $N)", ClassName.get("jakarta.persistence", "EntityNotFoundException"),
+                            entitySimple + " not found with id ", idFieldName)
+                    .endControlFlow()
+                    .addStatement("return expanded(entity, expand)")
+                    .build();
+            List<String> plans = new ArrayList<>();
+            List<CodeBlock> conditions = new ArrayList<>();
+            if (expandable.size() > 1) {
+                plans.add("Expanded");
+                conditions.add(CodeBlock.of("expand.size() > 1"));
+            }
+            for (VariableElement field : expandable) {
+                plans.add("With" + capitalize(field.getSimpleName().toString()));
+                conditions.add(CodeBlock.of("expand.contains($S)", field.getSimpleName().toString()));
+            }
+            for (int i = 0; i < plans.size(); i++) {
+                if (i == 0) {
+                    findAllExpanded.beginControlFlow("if ($L)", conditions.get(i));
+                } else {
+                    findAllExpanded.nextControlFlow("else if ($L)", conditions.get(i));
+                }
+                findAllExpanded.addStatement("entities = $N.find$LBy(limited)", decap(repoName), plans.get(i));
+            }
+            findAllExpanded.nextControlFlow("else")
+                    .addStatement("entities = $N.findAll(limited)", decap(repoName))
+                    .endControlFlow()
+                    .addStatement("return entities.<$T>map(e -> expanded(e, expand))", dtoClass);
+            weaver.add(findAllExpanded.build());
+            if (filtered) {
+                // fluent query: the requested relations become a fetch graph on the filtered page query. page() does not
+                // apply the sort of its Pageable, so it is passed through sortBy()
+                weaver.add(MethodSpec.methodBuilder("findAll")
+                        .addModifiers(Modifier.PUBLIC)
+                        .addAnnotation(readOnly)
+                        .returns(ParameterizedTypeName.get(ClassName.get("org.springframework.data.domain", "Page"), dtoClass))
+                        .addParameter(pageable, "pageable")
+                        .addParameter(filterClass, "filter")
+                        .addParameter(expandSet, "expand")
+                        .addStatement("$T limited = limit(pageable)", pageable)
+                        .addStatement("$T entities = $N.findBy(filter.toSpecification(), q -> q.project(expand).sortBy(limited.getSort()).page(limited))",
+                                ParameterizedTypeName.get(ClassName.get("org.springframework.data.domain", "Page"), entityClass), decap(repoName))
+                        .addStatement("return entities.<$T>map(e -> expanded(e, expand))", dtoClass)
+                        .build());
+            }
+            weaver.add(findByIdExpanded);
+
+            MethodSpec.Builder expanded = MethodSpec.methodBuilder("expanded")
+                    .addModifiers(Modifier.PRIVATE)
+                    .returns(expandedClass)
+                    .addParameter(entityClass, "entity")
+                    .addParameter(expandSet, "expand")
+                    .addStatement("$T dto = $N.to$LExpandedDTO(entity)", expandedClass, decap(mapperName), entitySimple);
+            for (VariableElement field : expandable) {
+                String name = field.getSimpleName().toString();
+                TypeElement related = model(entity).related().get(field);
+                String relatedMapper = related.equals(entity) ? decap(mapperName) : relatedMappers.get(field);
+                expanded.beginControlFlow("if (expand.contains($S))", name)
+                        .addStatement("dto.set$L($N.to$LDTO(entity.get$L()))", capitalize(name), relatedMapper,
+                                related.getSimpleName(), capitalize(name))
+                        .endControlFlow();
+            }
+            weaver.add(expanded.addStatement("return dto").build());
+        }
+
+        MethodSpec.Builder save = MethodSpec.methodBuilder("save")
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(readWrite)
+                .returns(dtoClass)
+                .addParameter(dtoClass, "dto")
+                .addStatement("$T entity = $N.to$L(dto)", entityClass, decap(mapperName), entitySimple)
+                .addStatement("$T saved = $N.save(entity)", entityClass, decap(repoName));
+        if (cached) {
+            save.addStatement("evict(dto.get$L())", capitalize(idFieldName));
+        }
+        weaver.add(save.addStatement("return $N.to$LDTO(saved)", decap(mapperName), entitySimple).build());
+
+        Optional<VariableElement> versionField = findConcurrencyField(entity);
+        TypeName versionType = versionField.map(f -> model(entity).typeOf(f).box()).orElse(null);
+        if (versionField.isPresent()) {
+            weaver.add(MethodSpec.methodBuilder("findVersion")
+                    .addModifiers(Modifier.PUBLIC)
+                    .addAnnotation(readOnly)
+                    .returns(ParameterizedTypeName.get(ClassName.get(Optional.class), versionType))
+                    .addParameter(idType, idFieldName)
+                    .addStatement("return $N.findVersionById($N)", decap(repoName), idFieldName)
+                    .build());
+        }
+
+        // update/patch copy onto the managed entity: dirty checking issues the UPDATE, no merge
+        for (String op : new String[]{"update", "patch"}) {
+            if (versionField.isPresent()) {
+                MethodSpec unconditional = MethodSpec.methodBuilder(op)
+                        .addModifiers(Modifier.PUBLIC)
+                        .addAnnotation(readWrite)
+                        .returns(dtoClass)
+                        .addParameter(idType, idFieldName)
+                        .addParameter(op.equals("patch") ? patchDto(entity) : dtoClass, "dto")
+                        .addStatement("return $L($N, dto, null)", op, idFieldName)
+                        .build();
+                // added unwoven: the overload it delegates to is the one timed
+                builder.addMethod(unconditional);
+            }
+            MethodSpec.Builder update = MethodSpec.methodBuilder(op)
+                    .addModifiers(Modifier.PUBLIC)
+                    .addAnnotation(readWrite)
+                    .returns(dtoClass)
+                    .addParameter(idType, idFieldName)
+                    .addParameter(op.equals("patch") ? patchDto(entity) : dtoClass, "dto");
+            if (versionField.isPresent()) {
+                update.addParameter(versionType, "expectedVersion");
+            }
+            update.addStatement("$T existing = $N.findById($N).orElseThrow(() -> new $T($S + $N))",
+                            entityClass, decap(repoName), idFieldName,
+                            ClassName.get("jakarta.persistence", "EntityNotFoundException"),
+                            entitySimple + " not found with id ", idFieldName);
+            if (versionField.isPresent()) {
+                // If-Match: the row must still be at the version the client saw
+                update.beginControlFlow("if (expectedVersion != null && !expectedVersion.equals(existing.get$L()))",
+                                capitalize(versionField.get().getSimpleName().toString()))
+                        .addStatement("throw new $T($T.class, $N)",
+                                ClassName.get("org.springframework.orm", "ObjectOptimisticLockingFailureException"),
+                                entityClass, idFieldName)
+                        .endControlFlow();
+            }
+            update.addStatement("$N.$L$L(dto, existing)", decap(mapperName), op, entitySimple);
+            if (cached) {
+                update.addStatement("evict($N)", idFieldName);
+            }
+            update.addStatement("return $N.to$LDTO($N.saveAndFlush(existing))", decap(mapperName), entitySimple, decap(repoName));
+            weaver.add(update.build());
+        }
+
+        MethodSpec.Builder delete = MethodSpec.methodBuilder("delete")
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(readWrite)
+                .addParameter(idType, idFieldName)
+                .addStatement("$N.deleteById($N)", decap(repoName), idFieldName);
+        if (cached) {
+            delete.addStatement("evict($N)", idFieldName);
+        }
+        weaver.add(delete.build());
+
+        addBatchMethods(builder, weaver, entity, entitySimple);
+
+        if (cached) {
+            // evict now and once more when the surrounding transaction completes, so a concurrent miss
+            // cannot re-cache the pre-commit state
+            ClassName syncManager = ClassName.get("org.springframework.transaction.support", "TransactionSynchronizationManager");
+            ClassName sync = ClassName.get("org.springframework.transaction.support", "TransactionSynchronization");
+            TypeSpec afterCompletion = TypeSpec.anonymousClassBuilder("")
+                    .addSuperinterface(sync)
+                    .addMethod(MethodSpec.methodBuilder("afterCompletion")
+                            .addAnnotation(Override.class)
+                            .addModifiers(Modifier.PUBLIC)
+                            .addParameter(TypeName.INT, "status")
+                            .addStatement("$N.evict($N)", decap(cacheName), idFieldName)
+                            .build())
+                    .build();
+            weaver.add(MethodSpec.methodBuilder("evict")
+                    .addModifiers(Modifier.PRIVATE)
+                    .addParameter(idType, idFieldName)
+                    .beginControlFlow("if ($N == null)", idFieldName)
+                    .addStatement("return")
+                    .endControlFlow()
+                    .addStatement("$N.evict($N)", decap(cacheName), idFieldName)
+                    .beginControlFlow("if ($T.isSynchronizationActive())", syncManager)
+                    .addStatement("$T.registerSynchronization($L)", syncManager, afterCompletion)
+                    .endControlFlow()
+                    .build());
+        }
+
+        weaver.finish(constructor);
+
+        return builder.build();
+    }
+
+    private void addBatchMethods(TypeSpec.Builder builder, Weaver weaver, TypeElement entity, String entitySimple) {
+        String dtoName = entitySimple + "DTO";
+        String repoName = entitySimple + "Repository";
+        String mapperName = entitySimple + "Mapper";
+        String entityPkg = model(entity).packageName();
+
+        ClassName entityClass = ClassName.get(entityPkg, entitySimple);
+        ClassName dtoClass = ClassName.get(replaceLastPackageSegment(entityPkg, BASE_PACKAGE_SUFFIX_DTO), dtoName);
+        ClassName resultClass = ClassName.get(replaceLastPackageSegment(entityPkg, BASE_PACKAGE_SUFFIX_DTO), entitySimple + "BatchItemResult");
+
+        Optional<VariableElement> idFieldOpt = findIdField(entity);
+        String idFieldName = idFieldOpt.map(VariableElement::getSimpleName).map(Object::toString).orElse("id");
+        TypeName idType = model(entity).idType();
+
+        ClassName list = ClassName.get(List.class);
+        ClassName arrayList = ClassName.get(ArrayList.class);
+        ClassName collectors = ClassName.get("java.util.stream", "Collectors");
+        TypeName results = ParameterizedTypeName.get(list, resultClass);
+        TypeName dtos = ParameterizedTypeName.get(list, dtoClass);
+        TypeName ids = ParameterizedTypeName.get(list, idType.box());
+        TypeVariableName t = TypeVariableName.get("T");
+
+        // ===== batch endpoints: chunked saveAll / deleteAllByIdInBatch, flush + clear per chunk =====
+        String[][] batchOps = {{"saveAll", "saveChunk"}, {"updateAll", "updateChunk"}, {"deleteAll", "deleteChunk"}};
+        for (String[] op : batchOps) {
+            boolean delete = op[0].equals("deleteAll");
+            MethodSpec.Builder batch = MethodSpec.methodBuilder(op[0])
+                    .addModifiers(Modifier.PUBLIC)
+                    .returns(results)
+                    .addParameter(delete ? ids : dtos, delete ? "ids" : "dtos");
+            if (isCached(entity)) {
+                batch.addStatement("$T batchResults = runBatch($L, this::$L)", results, delete ? "ids" : "dtos", op[1])
+                        .addStatement(delete ? "ids.forEach(this::evict)" : "dtos.forEach(dto -> evict(dto.get$L()))",
+                                capitalize(idFieldName))
+                        .addStatement("return batchResults");
+            } else {
+                batch.addStatement("return runBatch($L, this::$L)", delete ? "ids" : "dtos", op[1]);
+            }
+            weaver.add(batch.build());
+        }
+
+        builder.addMethod(MethodSpec.methodBuilder("saveChunk")
+                .addModifiers(Modifier.PRIVATE)
+                .returns(results)
+                .addParameter(dtos, "chunk")
+                .addParameter(TypeName.INT, "offset")
+                .addStatement("$T saved = $N.saveAll(chunk.stream().map($N::to$L).collect($T.toList()))",
+                        ParameterizedTypeName.get(list, entityClass), decap(repoName), decap(mapperName), entitySimple, collectors)
+                .addStatement("return flushChunk(saved, offset)")
+                .build());
+
+        // an item without an id is reported as failed, like an unknown id in deleteChunk, and the others are updated
+        String idGetter = "get" + capitalize(idFieldName);
+        builder.addMethod(MethodSpec.methodBuilder("updateChunk")
+                .addModifiers(Modifier.PRIVATE)
+                .returns(results)
+                .addParameter(dtos, "chunk")
+                .addParameter(TypeName.INT, "offset")
+                .addStatement("$T chunkIds = chunk.stream().map($T::$L).filter($T::nonNull).collect($T.toList())",
+                        ids, dtoClass, idGetter, ClassName.get("java.util", "Objects"), collectors)
+                .addComment("one SELECT for the whole chunk; the lookups below hit the persistence context")
+                .addStatement("$N.findAllById(chunkIds)", decap(repoName))
+                .addStatement("$T updated = new $T<>(chunk.size())", ParameterizedTypeName.get(list, entityClass), arrayList)
+                .beginControlFlow("for ($T dto : chunk)", dtoClass)
+                .beginControlFlow("if (dto.$L() == null)", idGetter)
+                .addStatement("continue")
+                .endControlFlow()
+                .addStatement("$T existing = entityManager.find($T.class, dto.$L())", entityClass, entityClass, idGetter)
+                .beginControlFlow("if (existing == null)")
+                .addStatement("throw new $T($S + dto.$L())",
+                        ClassName.get("jakarta.persistence", "EntityNotFoundException"),
+                        entitySimple + " not found with id ", idGetter)
+                .endControlFlow()
+                .addStatement("$N.update$L(dto, existing)", decap(mapperName), entitySimple)
+                .addStatement("updated.add(existing)")
+                .endControlFlow()
+                .beginControlFlow("if (updated.size() == chunk.size())")
+                .addStatement("return flushChunk(updated, offset)")
+                .endControlFlow()
+                .addStatement("$T flushed = flushChunk(updated, 0).iterator()",
+                        ParameterizedTypeName.get(ClassName.get("java.util", "Iterator"), resultClass))
+                .addStatement("$T chunkResults = new $T<>(chunk.size())", results, arrayList)
+                .beginControlFlow("for (int i = 0; i < chunk.size(); i++)")
+                .beginControlFlow("if (chunk.get(i).$L() == null)", idGetter)
+                .addStatement("chunkResults.add($T.failure(offset + i, $S))", resultClass, entitySimple + " id is required")
+                .nextControlFlow("else")
+                .addStatement("$T result = flushed.next()", resultClass)
+                .addStatement("chunkResults.add($T.success(offset + i, result.getId(), result.getData()))", resultClass)
+                .endControlFlow()
+                .endControlFlow()
+                .addStatement("return chunkResults")
+                .build());
+
+        builder.addMethod(MethodSpec.methodBuilder("deleteChunk")
+                .addModifiers(Modifier.PRIVATE)
+                .returns(results)
+                .addParameter(ids, "chunk")
+                .addParameter(TypeName.INT, "offset")
+                .addStatement("$T existing = new $T<>($N.findExistingIds(chunk))",
+                        ParameterizedTypeName.get(ClassName.get(Set.class), idType.box()), ClassName.get(HashSet.class), decap(repoName))
+                .addStatement("$N.deleteAllByIdInBatch(existing)", decap(repoName))
+                .addStatement("$T chunkResults = new $T<>(chunk.size())", results, arrayList)
+                .beginControlFlow("for (int i = 0; i < chunk.size(); i++)")
+                .addStatement("$T id = chunk.get(i)", idType.box())
+                .addStatement("chunkResults.add(existing.contains(id) ? $T.success(offset + i, id, null) : $T.failure(offset + i, $S + id))",
+                        resultClass, resultClass, entitySimple + " not found with id ")
+                .endControlFlow()
+                .addStatement("return chunkResults")
+                .build());
+
+        builder.addMethod(MethodSpec.methodBuilder("flushChunk")
+                .addModifiers(Modifier.PRIVATE)
+                .returns(results)
+                .addParameter(ParameterizedTypeName.get(list, entityClass), "saved")
+                .addParameter(TypeName.INT, "offset")
+                .addStatement("entityManager.flush()")
+                .addStatement("$T chunkResults = new $T<>(saved.size())", results, arrayList)
+                .beginControlFlow("for (int i = 0; i < saved.size(); i++)")
+                .addStatement("$T dto = $N.to$LDTO(saved.get(i))", dtoClass, decap(mapperName), entitySimple)
+                .addStatement("chunkResults.add($T.success(offset + i, dto.get$L(), dto))", resultClass, capitalize(idFieldName))
+                .endControlFlow()
+                .addStatement("entityManager.clear()")
+                .addStatement("return chunkResults")
+                .build());
+
+        // atomic: one transaction for the whole request; otherwise one per chunk, replaying a failed chunk item by item
+        builder.addMethod(MethodSpec.methodBuilder("runBatch")
+                .addModifiers(Modifier.PRIVATE)
+                .addTypeVariable(t)
+                .returns(results)
+                .addParameter(ParameterizedTypeName.get(list, t), "items")
+                .addParameter(ParameterizedTypeName.get(ClassName.get("java.util.function", "BiFunction"),
+                        ParameterizedTypeName.get(list, t), ClassName.get(Integer.class), results), "chunkOperation")
+                .addStatement("$T batchResults = new $T<>(items.size())", results, arrayList)
+                .beginControlFlow("if (batchAtomic)")
+                .addCode("transactionTemplate.executeWithoutResult(status -> {\n$>")
+                .beginControlFlow("for (int from = 0; from < items.size(); from += batchChunkSize)")
+                .addStatement("batchResults.addAll(chunkOperation.apply(items.subList(from, $T.min(from + batchChunkSize, items.size())), from))",
+                        Math.class)
+                .endControlFlow()
+                .addCode("$<")
+                .addStatement("})")
+                .addStatement("return batchResults")
+                .endControlFlow()
+                .beginControlFlow("for (int from = 0; from < items.size(); from += batchChunkSize)")
+                .addStatement("$T chunk = items.subList(from, $T.min(from + batchChunkSize, items.size()))",
+                        ParameterizedTypeName.get(list, t), Math.class)
+                .addStatement("int offset = from")
+                .beginControlFlow("try")
+                .addStatement("batchResults.addAll(transactionTemplate.execute(status -> chunkOperation.apply(chunk, offset)))")
+                .nextControlFlow("catch ($T ex)", RuntimeException.class)
+                .beginControlFlow("for (int i = 0; i < chunk.size(); i++)")
+                .addStatement("$T single = chunk.subList(i, i + 1)", ParameterizedTypeName.get(list, t))
+                .addStatement("int index = offset + i")
+                .beginControlFlow("try")
+                .addStatement("batchResults.addAll(transactionTemplate.execute(status -> chunkOperation.apply(single, index)))")
+                .nextControlFlow("catch ($T itemEx)", RuntimeException.class)
+                .addStatement("batchResults.add($T.failure(index, batchError(itemEx)))", resultClass)
+                .endControlFlow()
+                .endControlFlow()
+                .endControlFlow()
+                .endControlFlow()
+                .addStatement("return batchResults")
+                .build());
+        builder.addMethod(batchError(ClassName.get("jakarta.persistence", "EntityNotFoundException")));
+    }
+
+    // failed batch items carry a fixed message per failure kind: driver and SQL messages never reach the client
+    private MethodSpec batchError(ClassName notFound) {
+        ClassName dao = ClassName.get("org.springframework.dao", "DataIntegrityViolationException");
+        ClassName locking = ClassName.get("org.springframework.dao", "OptimisticLockingFailureException");
+        return MethodSpec.methodBuilder("batchError")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .returns(String.class)
+                .addParameter(Throwable.class, "ex")
+                .beginControlFlow("if (ex instanceof $T)", notFound)
+                .addStatement("return ex.getMessage()")
+                .endControlFlow()
+                .beginControlFlow("if (ex instanceof $T)", dao)
+                .addStatement("return $S", "data integrity violation")
+                .endControlFlow()
+                .beginControlFlow("if (ex instanceof $T)", locking)
+                .addStatement("return $S", "concurrent modification")
+                .endControlFlow()
+                .addStatement("return $S", "item could not be processed")
+                .build();
+    }
+
+    // ?sort= takes the DTO property names; anything else is a 400 instead of a query failure. Relation ids (authorId)
+    // are only sortable where the service maps them to the association path (SORT_PATHS, JPA services)
+    private void addSortCheck(TypeSpec.Builder builder, TypeElement entity, boolean relationIds) {
+        ClassName sort = ClassName.get("org.springframework.data.domain", "Sort");
+        builder.addField(FieldSpec.builder(ParameterizedTypeName.get(ClassName.get(List.class), ClassName.get(String.class)),
+                        "SORTABLE", Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .initializer("$T.of($L)", List.class, CodeBlock.join(dtoFields(entity).stream()
+                        .filter(DtoField::selectable)
+                        .filter(f -> relationIds || f.relation() == null)
+                        .map(f -> CodeBlock.of("$S", f.name()))
+                        .toList(), ", "))
+                .build());
+        builder.addMethod(MethodSpec.methodBuilder("checkSort")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addParameter(sort, "sort")
+                .beginControlFlow("for ($T order : sort)", sort.nestedClass("Order"))
+                .beginControlFlow("if (!SORTABLE.contains(order.getProperty()))")
+                .addStatement("throw new $T($T.BAD_REQUEST, $S + order.getProperty() + $S + SORTABLE)",
+                        ClassName.get("org.springframework.web.server", "ResponseStatusException"),
+                        ClassName.get("org.springframework.http", "HttpStatus"),
+                        "Unknown property in sort=", "; sortable properties: ")
+                .endControlFlow()
+                .endControlFlow()
+                .build());
+    }
+
+    private TypeSpec buildController(TypeElement entity, String entitySimple) {
+        String controllerName = entitySimple + "Controller";
+        String serviceName = entitySimple + "Service";
+        String dtoName = entitySimple + "DTO";
+
+        String entityPkg = model(entity).packageName();
+        String path = "/" + pluralize(lowerFirst(entitySimple));
+
+        ClassName serviceClass = ClassName.get(replaceLastPackageSegment(entityPkg, BASE_PACKAGE_SUFFIX_SERVICE), serviceName);
+        ClassName dtoClass = ClassName.get(replaceLastPackageSegment(entityPkg, BASE_PACKAGE_SUFFIX_DTO), dtoName);
+
+        Optional<VariableElement> idFieldOpt = findIdField(entity);
+        TypeName idType = model(entity).idType();
+        String idName = idFieldOpt.map(VariableElement::getSimpleName).map(Object::toString).orElse("id");
+
+        TypeSpec.Builder builder = TypeSpec.classBuilder(controllerName)
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", "RestController")).build())
+                .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", "RequestMapping"))
+                        .addMember("value", "$S", "/api" + path)
+                        .build());
+
+        ClassName objectMapper = ClassName.get("com.fasterxml.jackson.databind", "ObjectMapper");
+
+        builder.addField(FieldSpec.builder(serviceClass, decap(serviceName), Modifier.PRIVATE, Modifier.FINAL).build());
+        MethodSpec.Builder constructor = MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(serviceClass, decap(serviceName))
+                .addStatement("this.$N = $N", decap(serviceName), decap(serviceName));
+        if (streaming) {
+            builder.addField(FieldSpec.builder(objectMapper, "objectMapper", Modifier.PRIVATE, Modifier.FINAL).build());
+            constructor.addParameter(objectMapper, "objectMapper")
+                    .addStatement("this.objectMapper = objectMapper");
+        }
+        Weaver weaver = new Weaver(builder, entitySimple).binaryFormats();
+        if (bulkhead) {
+            weaver.guard(ClassName.get(model(entity).packageFor(BASE_PACKAGE_SUFFIX_CONTROLLER), entitySimple + "Bulkhead"),
+                    controllerOps(entity, entitySimple));
+        }
+        if (metrics) {
+            weaver.time("controller", controllerOps(entity, entitySimple), false);
+        }
+
+        ClassName responseEntity = ClassName.get("org.springframework.http", "ResponseEntity");
+        ClassName httpStatus = ClassName.get("org.springframework.http", "HttpStatus");
+        // conditional requests (ETag / If-None-Match / If-Match) need a version or last-modified field
+        Optional<VariableElement> versionField = findConcurrencyField(entity);
+        boolean conditional = versionField.isPresent();
+        String versionGetter = versionField.map(f -> "get" + capitalize(f.getSimpleName().toString())).orElse(null);
+        TypeName pageOfDto = ParameterizedTypeName.get(ClassName.get("org.springframework.data.domain", "Page"), dtoClass);
+        TypeName listOfDto = ParameterizedTypeName.get(ClassName.get(List.class), dtoClass);
+
+        MethodSpec.Builder getAll = MethodSpec.methodBuilder("getAll" + pluralize(entitySimple))
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", "GetMapping")).build())
+                .addParameter(ParameterSpec.builder(ClassName.get("org.springframework.data.domain", "Pageable"), "pageable")
+                        .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.data.web", "PageableDefault"))
+                                .addMember("size", "$L", Math.min(DEFAULT_PAGE_SIZE, maxPageSize))
+                                .build())
+                        .build())
+                .addStatement("checkSort(pageable.getSort())");
+        addSortCheck(builder, entity, true);
+        // ?expand=author,...: related rows are not covered by the entity version, so expanded responses carry no ETag
+        List<VariableElement> expandable = expandable(entity);
+        ParameterSpec expandParam = ParameterSpec.builder(ParameterizedTypeName.get(ClassName.get(Set.class), ClassName.get(String.class)), "expand")
+                .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", "RequestParam"))
+                        .addMember("value", "$S", "expand")
+                        .addMember("required", "false")
+                        .build())
+                .build();
+        // filter criteria bound from the query string (@ModelAttribute); without any, the projected unfiltered page is used
+        boolean filtered = !filterable(entity).isEmpty();
+        if (filtered) {
+            getAll.addParameter(ClassName.get(dtoClass.packageName(), entitySimple + "Filter"), "filter");
+        }
+        CodeBlock findPage = filtered
+                ? CodeBlock.of("filter.hasCriteria() ? $N.findAll(pageable, filter) : $N.findAll(pageable)", decap(serviceName), decap(serviceName))
+                : CodeBlock.of("$N.findAll(pageable)", decap(serviceName));
+        // ?fields=title,price: only those columns are selected and written; like expansions, no ETag
+        List<DtoField> sparse = sparse(entity);
+        ParameterSpec fieldsParam = ParameterSpec.builder(ParameterizedTypeName.get(ClassName.get(Set.class), ClassName.get(String.class)), "fields")
+                .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", "RequestParam"))
+                        .addMember("value", "$S", "fields")
+                        .addMember("required", "false")
+                        .build())
+                .build();
+        if (!sparse.isEmpty()) {
+            CodeBlock findSparse = filtered
+                    ? CodeBlock.of("$N.findSparse(pageable, filter, fields)", decap(serviceName))
+                    : CodeBlock.of("$N.findSparse(pageable, fields)", decap(serviceName));
+            getAll.addParameter(fieldsParam)
+                    .beginControlFlow("if (fields != null && !fields.isEmpty())")
+                    .addStatement("checkFields(fields$L)", expandable.isEmpty() ? "" : ", expand")
+                    .addStatement(conditional ? CodeBlock.of("return $T.ok($L)", responseEntity, findSparse)
+                            : CodeBlock.of("return $L", findSparse))
+                    .endControlFlow();
+        }
+        if (!expandable.isEmpty()) {
+            CodeBlock findExpanded = filtered
+                    ? CodeBlock.of("filter.hasCriteria() ? $N.findAll(pageable, filter, expand) : $N.findAll(pageable, expand)",
+                            decap(serviceName), decap(serviceName))
+                    : CodeBlock.of("$N.findAll(pageable, expand)", decap(serviceName));
+            getAll.addParameter(expandParam)
+                    .beginControlFlow("if (expand != null && !expand.isEmpty())")
+                    .addStatement("checkExpand(expand)")
+                    .addStatement(conditional ? CodeBlock.of("return $T.ok($L)", responseEntity, findExpanded)
+                            : CodeBlock.of("return $L", findExpanded))
+                    .endControlFlow();
+        }
+        if (conditional) {
+            // a matching If-None-Match is answered with 304 by Spring before the body is serialised
+            getAll.returns(ParameterizedTypeName.get(responseEntity, pageOfDto))
+                    .addStatement("$T page = $L", pageOfDto, findPage)
+                    .addStatement("return $T.ok().eTag(etag(page.getContent(), page.getTotalElements())).body(page)", responseEntity);
+        } else {
+            getAll.returns(pageOfDto)
+                    .addStatement("return $L", findPage);
+        }
+        weaver.add(getAll.build());
+
+        MethodSpec.Builder getAfter = MethodSpec.methodBuilder("get" + pluralize(entitySimple) + "After")
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", "GetMapping"))
+                        .addMember("value", "$S", "/keyset")
+                        .build())
+                .addParameter(ParameterSpec.builder(idType, "after")
+                        .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", "RequestParam"))
+                                .addMember("value", "$S", "after")
+                                .addMember("required", "false")
+                                .build())
+                        .build())
+                .addParameter(ParameterSpec.builder(TypeName.INT, "size")
+                        .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", "RequestParam"))
+                                .addMember("value", "$S", "size")
+                                .addMember("defaultValue", "$S", String.valueOf(Math.min(DEFAULT_PAGE_SIZE, maxPageSize)))
+                                .build())
+                        .build());
+        if (conditional) {
+            getAfter.returns(ParameterizedTypeName.get(responseEntity, listOfDto))
+                    .addStatement("$T dtos = $N.findAfter(after, size)", listOfDto, decap(serviceName))
+                    .addStatement("return $T.ok().eTag(etag(dtos, dtos.size())).body(dtos)", responseEntity);
+        } else {
+            getAfter.returns(listOfDto)
+                    .addStatement("return $N.findAfter(after, size)", decap(serviceName));
+        }
+        weaver.add(getAfter.build());
+
+        if (changeFeed(entity).isPresent()) {
+            // delta sync: clients keep the returned next token and send it back as ?since=
+            ClassName requestParam = ClassName.get("org.springframework.web.bind.annotation", "RequestParam");
+            weaver.add(MethodSpec.methodBuilder("get" + entitySimple + "Changes")
+                    .addModifiers(Modifier.PUBLIC)
+                    .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", "GetMapping"))
+                            .addMember("value", "$S", "/changes")
+                            .build())
+                    .addParameter(ParameterSpec.builder(String.class, "since")
+                            .addAnnotation(AnnotationSpec.builder(requestParam)
+                                    .addMember("value", "$S", "since")
+                                    .addMember("required", "false")
+                                    .build())
+                            .build())
+                    .addParameter(ParameterSpec.builder(TypeName.INT, "size")
+                            .addAnnotation(AnnotationSpec.builder(requestParam)
+                                    .addMember("value", "$S", "size")
+                                    .addMember("defaultValue", "$S", String.valueOf(Math.min(DEFAULT_PAGE_SIZE, maxPageSize)))
+                                    .build())
+                            .build())
+                    .returns(ClassName.get(replaceLastPackageSegment(entityPkg, BASE_PACKAGE_SUFFIX_DTO), entitySimple + "ChangesDTO"))
+                    .beginControlFlow("try")
+                    .addStatement("return $N.findChanges(since, size)", decap(serviceName))
+                    .nextControlFlow("catch ($T ex)", IllegalArgumentException.class)
+                    .addStatement("throw new $T($T.BAD_REQUEST, ex.getMessage(), ex)",
+                            ClassName.get("org.springframework.web.server", "ResponseStatusException"), httpStatus)
+                    .endControlFlow()
+                    .build());
+        }
+
+        if (streaming) {
+            // NDJSON: one DTO per line, written while the repository cursor is still open
+            ClassName streamingBody = ClassName.get("org.springframework.web.servlet.mvc.method.annotation", "StreamingResponseBody");
+            CodeBlock export = CodeBlock.builder()
+                    .add("$N.streamAll(dto -> {\n$>", decap(serviceName))
+                    .beginControlFlow("try")
+                    .addStatement("out.write(objectMapper.writeValueAsBytes(dto))")
+                    .addStatement("out.write('\\n')")
+                    .nextControlFlow("catch ($T ex)", IOException.class)
+                    .addStatement("throw new $T(ex)", ClassName.get("java.io", "UncheckedIOException"))
+                    .endControlFlow()
+                    .add("$<")
+                    .addStatement("})")
+                    .build();
+            MethodSpec.Builder stream = MethodSpec.methodBuilder("stream" + pluralize(entitySimple))
+                    .addModifiers(Modifier.PUBLIC)
+                    .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", "GetMapping"))
+                            .addMember("value", "$S", "/stream")
+                            .addMember("produces", "$T.APPLICATION_NDJSON_VALUE", ClassName.get("org.springframework.http", "MediaType"))
+                            .build())
+                    .returns(streamingBody);
+            if (bulkhead) {
+                // taken inside the body, which runs on the async executor after the handler returns: a body that never
+                // runs (rejected task, async timeout, client gone) holds no permit. A full bulkhead throws before the
+                // first row is written, so the async dispatch still answers 503
+                String bulkheadField = decap(entitySimple + "Bulkhead");
+                stream.addCode("return out -> {\n$>")
+                        .addStatement("$N.acquire($S)", bulkheadField, STREAM_OP)
+                        .beginControlFlow("try")
+                        .addCode(export)
+                        .nextControlFlow("finally")
+                        .addStatement("$N.release($S)", bulkheadField, STREAM_OP)
+                        .endControlFlow()
+                        .addCode("$<};\n");
+            } else {
+                stream.addCode("return out -> ").addCode(export);
+            }
+            weaver.add(stream.build());
+        }
+
+        MethodSpec.Builder getById = MethodSpec.methodBuilder("get" + entitySimple + "ById")
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", "GetMapping"))
+                        .addMember("value", "$S", "/{" + idName + "}")
+                        .build())
+                .addParameter(ParameterSpec.builder(idType, idName)
+                        .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", "PathVariable")).build())
+                        .build())
+                .returns(ParameterizedTypeName.get(ClassName.get("org.springframework.http", "ResponseEntity"), dtoClass));
+        if (!sparse.isEmpty()) {
+            getById.addParameter(fieldsParam)
+                    .beginControlFlow("if (fields != null && !fields.isEmpty())")
+                    .addStatement("checkFields(fields$L)", expandable.isEmpty() ? "" : ", expand")
+                    .addStatement("return $T.ok($N.findSparseById($N, fields))", responseEntity, decap(serviceName), idName)
+                    .endControlFlow();
+            builder.addField(FieldSpec.builder(ParameterizedTypeName.get(ClassName.get(List.class), ClassName.get(String.class)),
+                            "SELECTABLE", Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                    .initializer("$T.of($L)", List.class,
+                            CodeBlock.join(sparse.stream().map(f -> CodeBlock.of("$S", f.name())).toList(), ", "))
+                    .build());
+            MethodSpec.Builder checkFields = MethodSpec.methodBuilder("checkFields")
+                    .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                    .addParameter(fieldsParam.type, "fields")
+                    .beginControlFlow("if (!SELECTABLE.containsAll(fields))")
+                    .addStatement("throw new $T($T.BAD_REQUEST, $S + fields + $S + SELECTABLE)",
+                            ClassName.get("org.springframework.web.server", "ResponseStatusException"), httpStatus,
+                            "Unknown field in fields=", "; selectable fields: ")
+                    .endControlFlow();
+            if (!expandable.isEmpty()) {
+                checkFields.addParameter(expandParam.type, "expand")
+                        .beginControlFlow("if (expand != null && !expand.isEmpty())")
+                        .addStatement("throw new $T($T.BAD_REQUEST, $S)",
+                                ClassName.get("org.springframework.web.server", "ResponseStatusException"), httpStatus,
+                                "fields cannot be combined with expand")
+                        .endControlFlow();
+            }
+            weaver.add(checkFields.build());
+        }
+        if (!expandable.isEmpty()) {
+            getById.addParameter(expandParam)
+                    .beginControlFlow("if (expand != null && !expand.isEmpty())")
+                    .addStatement("checkExpand(expand)")
+                    .addStatement("return $T.ok($N.findById($N, expand))", responseEntity, decap(serviceName), idName)
+                    .endControlFlow();
+            builder.addField(FieldSpec.builder(ParameterizedTypeName.get(ClassName.get(List.class), ClassName.get(String.class)),
+                            "EXPANDABLE", Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                    .initializer("$T.of($L)", List.class,
+                            CodeBlock.join(expandable.stream().map(f -> CodeBlock.of("$S", f.getSimpleName().toString())).toList(), ", "))
+                    .build());
+            weaver.add(MethodSpec.methodBuilder("checkExpand")
+                    .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                    .addParameter(expandParam.type, "expand")
+                    .beginControlFlow("if (!EXPANDABLE.containsAll(expand))")
+                    .addStatement("throw new $T($T.BAD_REQUEST, $S + expand + $S + EXPANDABLE)",
+                            ClassName.get("org.springframework.web.server", "ResponseStatusException"), httpStatus,
+                            "Unknown relation in expand=", "; expandable relations: ")
+                    .endControlFlow()
+                    .build());
+        }
+        if (conditional) {
+            // revalidation only reads the version column
+            getById.addParameter(ParameterSpec.builder(ClassName.get(String.class), "ifNoneMatch")
+                            .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", "RequestHeader"))
+                                    .addMember("value", "$T.IF_NONE_MATCH", ClassName.get("org.springframework.http", "HttpHeaders"))
+                                    .addMember("required", "false")
+                                    .build())
+                            .build())
+                    .beginControlFlow("if (ifNoneMatch != null)")
+                    .addStatement("$T version = $N.findVersion($N).orElse(null)",
+                            model(entity).typeOf(versionField.get()).box(), decap(serviceName), idName)
+                    .beginControlFlow("if (version != null && matches(ifNoneMatch, etag(version), true))")
+                    .addStatement("return $T.status($T.NOT_MODIFIED).eTag(etag(version)).build()", responseEntity, httpStatus)
+                    .endControlFlow()
+                    .endControlFlow()
+                    .addStatement("$T dto = $N.findById($N)", dtoClass, decap(serviceName), idName)
+                    .addStatement("return $T.ok().eTag(etag(dto.$L())).body(dto)", responseEntity, versionGetter);
+        } else {
+            getById.addStatement("$T dto = $N.findById($N)", dtoClass, decap(serviceName), idName)
+                    .addStatement("return $T.ok(dto)", ClassName.get("org.springframework.http", "ResponseEntity"));
+        }
+        weaver.add(getById.build());
+
+        MethodSpec create = MethodSpec.methodBuilder("create" + entitySimple)
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", "PostMapping")).build())
+                .addParameter(ParameterSpec.builder(dtoClass, "dto")
+                        .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", "RequestBody")).build())
+                        .build())
+                .returns(ParameterizedTypeName.get(ClassName.get("org.springframework.http", "ResponseEntity"), dtoClass))
+                .addStatement("$T created = $N.save(dto)", dtoClass, decap(serviceName))
+                .addStatement("return $T.status($T.CREATED).body(created)",
+                        ClassName.get("org.springframework.http", "ResponseEntity"),
+                        ClassName.get("org.springframework.http", "HttpStatus"))
+                .build();
+        weaver.add(create);
+
+        for (String op : new String[]{"update", "patch"}) {
+            String result = op.equals("update") ? "updated" : "patched";
+            MethodSpec.Builder update = MethodSpec.methodBuilder(op + entitySimple)
+                    .addModifiers(Modifier.PUBLIC)
+                    .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation",
+                                    op.equals("update") ? "PutMapping" : "PatchMapping"))
+                            .addMember("value", "$S", "/{" + idName + "}")
+                            .build())
+                    .addParameter(ParameterSpec.builder(idType, idName)
+                            .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", "PathVariable")).build())
+                            .build())
+                    .addParameter(ParameterSpec.builder(op.equals("patch") ? patchDto(entity) : dtoClass, "dto")
+                            .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", "RequestBody")).build())
+                            .build())
+                    .returns(ParameterizedTypeName.get(ClassName.get("org.springframework.http", "ResponseEntity"), dtoClass));
+            if (conditional) {
+                // If-Match is checked against a version-only query, then re-checked on the loaded entity
+                TypeName versionType = model(entity).typeOf(versionField.get()).box();
+                update.addParameter(ParameterSpec.builder(ClassName.get(String.class), "ifMatch")
+                                .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", "RequestHeader"))
+                                        .addMember("value", "$T.IF_MATCH", ClassName.get("org.springframework.http", "HttpHeaders"))
+                                        .addMember("required", "false")
+                                        .build())
+                                .build())
+                        .addStatement("$T expectedVersion = null", versionType)
+                        .beginControlFlow("if (ifMatch != null)")
+                        .addStatement("expectedVersion = $N.findVersion($N).orElseThrow(() -> new $T($S + $N))",
+                                decap(serviceName), idName,
+                                ClassName.get("jakarta.persistence", "EntityNotFoundException"),
+                                entitySimple + " not found with id ", idName)
+                        .beginControlFlow("if (!matches(ifMatch, etag(expectedVersion), false))")
+                        .addStatement("return $T.status($T.PRECONDITION_FAILED).eTag(etag(expectedVersion)).build()",
+                                responseEntity, httpStatus)
+                        .endControlFlow()
+                        .endControlFlow()
+                        .addStatement("$T $L", dtoClass, result)
+                        .beginControlFlow("try")
+                        .addStatement("$L = $N.$L($N, dto, expectedVersion)", result, decap(serviceName), op, idName)
+                        .nextControlFlow("catch ($T ex)", ClassName.get("org.springframework.dao", "OptimisticLockingFailureException"))
+                        .beginControlFlow("if (expectedVersion == null)")
+                        .addStatement("throw ex")
+                        .endControlFlow()
+                        .addStatement("return $T.status($T.PRECONDITION_FAILED).build()", responseEntity, httpStatus)
+                        .endControlFlow()
+                        .addStatement("return $T.ok().eTag(etag($L.$L())).body($L)", responseEntity, result, versionGetter, result);
+            } else {
+                update.addStatement("$T $L = $N.$L($N, dto)", dtoClass, result, decap(serviceName), op, idName)
+                        .addStatement("return $T.ok($L)", responseEntity, result);
+            }
+            weaver.add(update.build());
+        }
 
-                    String idFieldName = relatedIdField.get().getSimpleName().toString();
-                    TypeName idType = TypeName.get(relatedIdField.get().asType());
+        MethodSpec delete = MethodSpec.methodBuilder("delete" + entitySimple)
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", "DeleteMapping"))
+                        .addMember("value", "$S", "/{" + idName + "}")
+                        .build())
+                .addParameter(ParameterSpec.builder(idType, idName)
+                        .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", "PathVariable")).build())
+                        .build())
+                .returns(ParameterizedTypeName.get(
+                        ClassName.get("org.springframework.http", "ResponseEntity"),
+                        ClassName.get(Void.class)))
+                .addStatement("$N.delete($N)", decap(serviceName), idName)
+                .addStatement("return $T.noContent().build()", ClassName.get("org.springframework.http", "ResponseEntity"))
+                .build();
+        weaver.add(delete);
 
-                    MethodSpec helper = MethodSpec.methodBuilder("map" + relatedSimple + "FromId")
-                            .addModifiers(Modifier.PUBLIC, Modifier.DEFAULT)
-                            .returns(relatedClass)
-                            .addParameter(idType, "id")
-                            .beginControlFlow("if (id == null)")
-                            .addStatement("return null")
-                            .endControlFlow()
-                            .addStatement("$T e = new $T()", relatedClass, relatedClass)
-                            .addStatement("e.set$L(id)", capitalize(idFieldName))
-                            .addStatement("return e")
-                            .build();
+        // ===== batch endpoints =====
+        ClassName resultClass = ClassName.get(replaceLastPackageSegment(entityPkg, BASE_PACKAGE_SUFFIX_DTO), entitySimple + "BatchItemResult");
+        TypeName results = ParameterizedTypeName.get(ClassName.get(List.class), resultClass);
+        TypeName batchResponse = ParameterizedTypeName.get(responseEntity, results);
+        String[][] batchOps = {
+                {"PostMapping", "create", "saveAll", "CREATED"},
+                {"PutMapping", "update", "updateAll", "OK"},
+                {"DeleteMapping", "delete", "deleteAll", "OK"}
+        };
+        for (String[] op : batchOps) {
+            TypeName body = op[2].equals("deleteAll")
+                    ? ParameterizedTypeName.get(ClassName.get(List.class), idType.box())
+                    : ParameterizedTypeName.get(ClassName.get(List.class), dtoClass);
+            weaver.add(MethodSpec.methodBuilder(op[1] + pluralize(entitySimple))
+                    .addModifiers(Modifier.PUBLIC)
+                    .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", op[0]))
+                            .addMember("value", "$S", "/batch")
+                            .build())
+                    .addParameter(ParameterSpec.builder(body, op[2].equals("deleteAll") ? "ids" : "dtos")
+                            .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", "RequestBody")).build())
+                            .build())
+                    .returns(batchResponse)
+                    .addStatement("return batchResponse($N.$N($N), $T.$L)", decap(serviceName), op[2],
+                            op[2].equals("deleteAll") ? "ids" : "dtos", httpStatus, op[3])
+                    .build());
+        }
 
-                    builder.addMethod(helper);
-                }
-            } else {
-                messager.printMessage(Diagnostic.Kind.WARNING,
-                    "Relazione '" + fieldName + "' -> " + relatedEl.getSimpleName() + " senza @Id; non genero helper.");
+        // 207 Multi-Status when at least one item failed (non-atomic batches only)
+        weaver.add(MethodSpec.methodBuilder("batchResponse")
+                .addModifiers(Modifier.PRIVATE)
+                .returns(batchResponse)
+                .addParameter(results, "results")
+                .addParameter(httpStatus, "status")
+                .addStatement("boolean failed = results.stream().anyMatch(r -> !r.isSuccess())")
+                .addStatement("return $T.status(failed ? $T.MULTI_STATUS : status).body(results)", responseEntity, httpStatus)
+                .build());
+
+        if (conditional) {
+            weaver.add(MethodSpec.methodBuilder("etag")
+                    .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                    .returns(String.class)
+                    .addParameter(Object.class, "version")
+                    .addStatement("return \"\\\"\" + version + \"\\\"\"")
+                    .build());
+            // list ETag: digest of every (id, version) pair plus the total, so any change, insert or delete alters it
+            weaver.add(MethodSpec.methodBuilder("etag")
+                    .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                    .returns(String.class)
+                    .addParameter(listOfDto, "dtos")
+                    .addParameter(TypeName.LONG, "total")
+                    .addStatement("$T sb = new $T().append(total)", StringBuilder.class, StringBuilder.class)
+                    .beginControlFlow("for ($T dto : dtos)", dtoClass)
+                    .addStatement("sb.append(',').append(dto.get$L()).append(':').append(dto.$L())", capitalize(idName), versionGetter)
+                    .endControlFlow()
+                    .addStatement("return \"\\\"\" + $T.md5DigestAsHex(sb.toString().getBytes($T.UTF_8)) + \"\\\"\"",
+                            ClassName.get("org.springframework.util", "DigestUtils"),
+                            ClassName.get("java.nio.charset", "StandardCharsets"))
+                    .build());
+            // If-None-Match uses the weak comparison (W/ prefix ignored), If-Match the strong one
+            weaver.add(MethodSpec.methodBuilder("matches")
+                    .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                    .returns(TypeName.BOOLEAN)
+                    .addParameter(String.class, "header")
+                    .addParameter(String.class, "etag")
+                    .addParameter(TypeName.BOOLEAN, "weak")
+                    .beginControlFlow("for ($T candidate : header.split($S))", String.class, ",")
+                    .addStatement("$T tag = candidate.trim()", String.class)
+                    .beginControlFlow("if (weak && tag.startsWith($S))", "W/")
+                    .addStatement("tag = tag.substring(2)")
+                    .endControlFlow()
+                    .beginControlFlow("if (tag.equals($S) || tag.equals(etag))", "*")
+                    .addStatement("return true")
+                    .endControlFlow()
+                    .endControlFlow()
+                    .addStatement("return false")
+                    .build());
+        }
+
+        weaver.add(notFoundHandler());
+        weaver.finish(constructor);
+        return builder.build();
+    }
+
+    // JMH state driving mapper, JSON and the HTTP CRUD path of one entity; Spring context bootstrapped via TestContextManager
+    private TypeSpec buildBenchmark(TypeElement entity, String entitySimple) {
+        EntityModel model = model(entity);
+        String entityPkg = model.packageName();
+        String dtoName = entitySimple + "DTO";
+        String mapperName = entitySimple + "Mapper";
+        String path = "/api/" + pluralize(lowerFirst(entitySimple));
+        ClassName entityClass = ClassName.get(entityPkg, entitySimple);
+        ClassName dtoClass = ClassName.get(replaceLastPackageSegment(entityPkg, BASE_PACKAGE_SUFFIX_DTO), dtoName);
+        ClassName mapperClass = ClassName.get(replaceLastPackageSegment(entityPkg, BASE_PACKAGE_SUFFIX_MAPPER), mapperName);
+        ClassName objectMapper = ClassName.get("com.fasterxml.jackson.databind", "ObjectMapper");
+        ClassName mockMvc = ClassName.get("org.springframework.test.web.servlet", "MockMvc");
+        ClassName mvcResult = ClassName.get("org.springframework.test.web.servlet", "MvcResult");
+        ClassName requests = ClassName.get("org.springframework.test.web.servlet.request", "MockMvcRequestBuilders");
+        ClassName mediaType = ClassName.get("org.springframework.http", "MediaType");
+        ClassName autowired = ClassName.get("org.springframework.beans.factory.annotation", "Autowired");
+        String jmh = "org.openjdk.jmh.annotations";
+        ClassName level = ClassName.get(jmh, "Level");
+        String mapperField = decap(mapperName);
+        String idGetter = "get" + capitalize(model.idName());
+
+        TypeSpec.Builder builder = TypeSpec.classBuilder(entitySimple + "Benchmark")
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(AnnotationSpec.builder(ClassName.get(jmh, "State"))
+                        .addMember("value", "$T.Benchmark", ClassName.get(jmh, "Scope")).build())
+                .addAnnotation(AnnotationSpec.builder(ClassName.get(jmh, "BenchmarkMode"))
+                        .addMember("value", "$T.Throughput", ClassName.get(jmh, "Mode")).build())
+                .addAnnotation(AnnotationSpec.builder(ClassName.get(jmh, "OutputTimeUnit"))
+                        .addMember("value", "$T.SECONDS", ClassName.get("java.util.concurrent", "TimeUnit")).build())
+                .addAnnotation(AnnotationSpec.builder(ClassName.get(jmh, "Warmup"))
+                        .addMember("iterations", "3").addMember("time", "2").build())
+                .addAnnotation(AnnotationSpec.builder(ClassName.get(jmh, "Measurement"))
+                        .addMember("iterations", "5").addMember("time", "2").build())
+                .addAnnotation(AnnotationSpec.builder(ClassName.get(jmh, "Fork")).addMember("value", "1").build())
+                .addAnnotation(ClassName.get("org.springframework.boot.test.context", "SpringBootTest"))
+                .addAnnotation(ClassName.get("org.springframework.boot.test.autoconfigure.web.servlet", "AutoConfigureMockMvc"))
+                .addAnnotation(ClassName.get("org.springframework.boot.test.autoconfigure.jdbc", "AutoConfigureTestDatabase"));
+
+        builder.addField(FieldSpec.builder(TypeName.INT, "batchSize", Modifier.PUBLIC)
+                .addAnnotation(AnnotationSpec.builder(ClassName.get(jmh, "Param")).addMember("value", "$S", "10").build())
+                .build());
+        builder.addField(FieldSpec.builder(mapperClass, mapperField, Modifier.PRIVATE).addAnnotation(autowired).build());
+        builder.addField(FieldSpec.builder(objectMapper, "objectMapper", Modifier.PRIVATE).addAnnotation(autowired).build());
+        builder.addField(FieldSpec.builder(mockMvc, "mockMvc", Modifier.PRIVATE).addAnnotation(autowired).build());
+        builder.addField(entityClass, "entity", Modifier.PRIVATE);
+        builder.addField(dtoClass, "dto", Modifier.PRIVATE);
+        builder.addField(String.class, "json", Modifier.PRIVATE);
+        builder.addField(String.class, "batchJson", Modifier.PRIVATE);
+        builder.addField(model.idType().box(), "id", Modifier.PRIVATE);
+        // assigned ids: every sample takes the next key, so repeated creates do not collide on the primary key
+        boolean assignedId = !model.generatedId() && model.idField().isPresent();
+        if (assignedId) {
+            ClassName atomicInteger = ClassName.get("java.util.concurrent.atomic", "AtomicInteger");
+            builder.addField(FieldSpec.builder(atomicInteger, "KEYS", Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                    .initializer("new $T()", atomicInteger)
+                    .build());
+        }
+
+        // one persisted row for the read/update paths, a ready-made payload for the write paths
+        builder.addMethod(MethodSpec.methodBuilder("setUp")
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(AnnotationSpec.builder(ClassName.get(jmh, "Setup")).addMember("value", "$T.Trial", level).build())
+                .addException(Exception.class)
+                .addStatement("new $T($T.class).prepareTestInstance(this)",
+                        ClassName.get("org.springframework.test.context", "TestContextManager"),
+                        ClassName.get(replaceLastPackageSegment(entityPkg, BASE_PACKAGE_SUFFIX_BENCHMARK), entitySimple + "Benchmark"))
+                .addStatement("dto = sample(0)")
+                .addStatement("json = objectMapper.writeValueAsString(dto)")
+                .addStatement("$T saved = objectMapper.readValue(perform(mockMvc, $T.post($S).contentType($T.APPLICATION_JSON).content(json))"
+                        + ".getResponse().getContentAsString(), $T.class)", dtoClass, requests, path, mediaType, dtoClass)
+                .addStatement("id = saved.$L()", idGetter)
+                .addStatement("entity = $N.to$L(saved)", mapperField, entitySimple)
+                .addStatement("batchJson = objectMapper.writeValueAsString(samples(batchSize))")
+                .build());
+
+        builder.addMethod(benchmark("mapToDto", dtoClass).addStatement("return $N.to$LDTO(entity)", mapperField, entitySimple).build());
+        builder.addMethod(benchmark("mapToEntity", entityClass).addStatement("return $N.to$L(dto)", mapperField, entitySimple).build());
+        builder.addMethod(benchmark("serialize", ClassName.get(String.class))
+                .addStatement("return objectMapper.writeValueAsString(dto)").build());
+        builder.addMethod(benchmark("deserialize", dtoClass)
+                .addStatement("return objectMapper.readValue(json, $T.class)", dtoClass).build());
+        builder.addMethod(benchmark("findById", mvcResult)
+                .addStatement("return perform(mockMvc, $T.get($S, id))", requests, path + "/{id}").build());
+        builder.addMethod(benchmark("findPage", mvcResult)
+                .addStatement("return perform(mockMvc, $T.get($S))", requests, path + "?size=20").build());
+        // with assigned ids the payload is rebuilt per call (its serialization is then part of the measure)
+        builder.addMethod(benchmark("create", mvcResult)
+                .addStatement("return perform(mockMvc, $T.post($S).contentType($T.APPLICATION_JSON).content($L))",
+                        requests, path, mediaType, assignedId ? "objectMapper.writeValueAsString(sample(0))" : "json").build());
+        builder.addMethod(benchmark("update", mvcResult)
+                .addStatement("return perform(mockMvc, $T.put($S, id).contentType($T.APPLICATION_JSON).content(json))",
+                        requests, path + "/{id}", mediaType).build());
+        builder.addMethod(benchmark("createBatch", mvcResult)
+                .addStatement("return perform(mockMvc, $T.post($S).contentType($T.APPLICATION_JSON).content($L))",
+                        requests, path + "/batch", mediaType,
+                        assignedId ? "objectMapper.writeValueAsString(samples(batchSize))" : "batchJson").build());
+
+        // sample(n): scalar properties filled from n; ids of relations stay null
+        MethodSpec.Builder sample = MethodSpec.methodBuilder("sample")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .returns(dtoClass)
+                .addParameter(TypeName.INT, "n")
+                .addStatement("$T dto = new $T()", dtoClass, dtoClass);
+        for (VariableElement field : model.fields()) {
+            if (model.toOne().contains(field) || model.toMany().contains(field) || model.collections().contains(field)
+                    || model.transients().contains(field) || model.versionField().map(field::equals).orElse(false)
+                    || (model.generatedId() && model.idField().map(field::equals).orElse(false))) {
+                continue;
+            }
+            boolean key = model.idField().map(field::equals).orElse(false);
+            CodeBlock value = sampleValue(model.typeOf(field), model.enums().contains(field), key ? "KEYS.incrementAndGet()" : "n");
+            if (value != null) {
+                sample.addStatement("dto.set$L($L)", capitalize(field.getSimpleName().toString()), value);
             }
         }
+        builder.addMethod(sample.addStatement("return dto").build());
+
+        TypeName dtoList = ParameterizedTypeName.get(ClassName.get(List.class), dtoClass);
+        builder.addMethod(MethodSpec.methodBuilder("samples")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .returns(dtoList)
+                .addParameter(TypeName.INT, "count")
+                .addStatement("$T samples = new $T<>()", dtoList, ArrayList.class)
+                .beginControlFlow("for (int i = 1; i <= count; i++)")
+                .addStatement("samples.add(sample(i))")
+                .endControlFlow()
+                .addStatement("return samples")
+                .build());
+
+        // 2xx or fail; async results are dispatched like a servlet container would
+        builder.addMethod(MethodSpec.methodBuilder("perform")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .returns(mvcResult)
+                .addParameter(mockMvc, "mockMvc")
+                .addParameter(ClassName.get("org.springframework.test.web.servlet", "RequestBuilder"), "request")
+                .addException(Exception.class)
+                .addStatement("$T result = mockMvc.perform(request).andReturn()", mvcResult)
+                .beginControlFlow("if (result.getRequest().isAsyncStarted())")
+                .addStatement("result.getAsyncResult()")
+                .addStatement("result = mockMvc.perform($T.asyncDispatch(result)).andReturn()", requests)
+                .endControlFlow()
+                .addStatement("int status = result.getResponse().getStatus()")
+                .beginControlFlow("if (status >= 300)")
+                .addStatement("throw new $T(result.getRequest().getMethod() + \" \" + result.getRequest().getRequestURI()"
+                        + " + \" -> \" + status + \" \" + result.getResponse().getContentAsString())", IllegalStateException.class)
+                .endControlFlow()
+                .addStatement("return result")
+                .build());
+
+        return builder.build();
+    }
+
+    private MethodSpec.Builder benchmark(String name, TypeName returns) {
+        return MethodSpec.methodBuilder(name)
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(ClassName.get("org.openjdk.jmh.annotations", "Benchmark"))
+                .addException(Exception.class)
+                .returns(returns);
+    }
+
+    private CodeBlock sampleValue(TypeName type, boolean enumType, String n) {
+        if (enumType) {
+            return CodeBlock.of("$T.values()[$L % $T.values().length]", type, n, type);
+        }
+        TypeName boxed = type.box();
+        if (boxed.equals(ClassName.get(String.class))) return CodeBlock.of("$S + $L", "bench-", n);
+        if (boxed.equals(ClassName.get(Integer.class))) return CodeBlock.of("$L", n);
+        if (boxed.equals(ClassName.get(Long.class))) return CodeBlock.of("(long) $L", n);
+        if (boxed.equals(ClassName.get(Short.class))) return CodeBlock.of("(short) $L", n);
+        if (boxed.equals(ClassName.get(Byte.class))) return CodeBlock.of("(byte) $L", n);
+        if (boxed.equals(ClassName.get(Double.class))) return CodeBlock.of("(double) $L", n);
+        if (boxed.equals(ClassName.get(Float.class))) return CodeBlock.of("(float) $L", n);
+        if (boxed.equals(ClassName.get(Boolean.class))) return CodeBlock.of("$L % 2 == 0", n);
+        if (boxed.equals(ClassName.get(Character.class))) return CodeBlock.of("(char) ('a' + $L % 26)", n);
+        if (boxed.equals(ClassName.get("java.math", "BigDecimal")) || boxed.equals(ClassName.get("java.math", "BigInteger"))) {
+            return CodeBlock.of("$T.valueOf($L)", boxed, n);
+        }
+        if (boxed.equals(ClassName.get("java.util", "UUID"))) return CodeBlock.of("$T.randomUUID()", boxed);
+        for (String temporal : new String[]{"LocalDate", "LocalDateTime", "LocalTime", "Instant", "OffsetDateTime", "ZonedDateTime"}) {
+            if (boxed.equals(ClassName.get("java.time", temporal))) return CodeBlock.of("$T.now()", boxed);
+        }
+        return null;
     }
 
-    builder.addMethod(toEntity.build());
+    // Plain JUnit/MockMvc loop over the same operations: a quick ops/s figure, no JMH run needed. It measures and
+    // asserts nothing, so it only runs when asked for with -Dspringsmith.throughput=true
+    private TypeSpec buildThroughputTest(TypeElement entity, String entitySimple) {
+        EntityModel model = model(entity);
+        String entityPkg = model.packageName();
+        String path = "/api/" + pluralize(lowerFirst(entitySimple));
+        ClassName dtoClass = ClassName.get(replaceLastPackageSegment(entityPkg, BASE_PACKAGE_SUFFIX_DTO), entitySimple + "DTO");
+        ClassName benchmarkClass = ClassName.get(replaceLastPackageSegment(entityPkg, BASE_PACKAGE_SUFFIX_BENCHMARK), entitySimple + "Benchmark");
+        ClassName requests = ClassName.get("org.springframework.test.web.servlet.request", "MockMvcRequestBuilders");
+        ClassName mediaType = ClassName.get("org.springframework.http", "MediaType");
+        ClassName autowired = ClassName.get("org.springframework.beans.factory.annotation", "Autowired");
+        ClassName operation = benchmarkClass.peerClass(entitySimple + "ThroughputTest").nestedClass("Operation");
 
-    return builder.build();
-}
+        TypeSpec.Builder builder = TypeSpec.classBuilder(entitySimple + "ThroughputTest")
+                .addAnnotation(ClassName.get("org.springframework.boot.test.context", "SpringBootTest"))
+                .addAnnotation(ClassName.get("org.springframework.boot.test.autoconfigure.web.servlet", "AutoConfigureMockMvc"))
+                .addAnnotation(ClassName.get("org.springframework.boot.test.autoconfigure.jdbc", "AutoConfigureTestDatabase"))
+                .addAnnotation(AnnotationSpec.builder(ClassName.get("org.junit.jupiter.api.condition", "EnabledIfSystemProperty"))
+                        .addMember("named", "$S", "springsmith.throughput")
+                        .addMember("matches", "$S", "true")
+                        .build());
+        builder.addField(FieldSpec.builder(ClassName.get("org.springframework.test.web.servlet", "MockMvc"), "mockMvc", Modifier.PRIVATE)
+                .addAnnotation(autowired).build());
+        builder.addField(FieldSpec.builder(ClassName.get("com.fasterxml.jackson.databind", "ObjectMapper"), "objectMapper", Modifier.PRIVATE)
+                .addAnnotation(autowired).build());
 
-private TypeSpec buildRepository(TypeElement entity, String entitySimple) {
+        String post = "$T.perform(mockMvc, $T.post($S).contentType($T.APPLICATION_JSON).content($L))";
+        // assigned ids: a fresh payload per create, as in the JMH benchmark
+        boolean assignedId = !model.generatedId() && model.idField().isPresent();
+        CodeBlock createJson = assignedId ? CodeBlock.of("objectMapper.writeValueAsString($T.sample(0))", benchmarkClass) : CodeBlock.of("json");
+        CodeBlock batchJson = CodeBlock.of("objectMapper.writeValueAsString($T.samples(10))", benchmarkClass);
+        MethodSpec.Builder throughput = MethodSpec.methodBuilder("crudThroughput")
+                .addAnnotation(ClassName.get("org.junit.jupiter.api", "Test"))
+                .addException(Exception.class)
+                .addStatement("int iterations = $T.getInteger($S, 200)", Integer.class, "springsmith.throughput.iterations")
+                .addStatement("String json = objectMapper.writeValueAsString($T.sample(0))", benchmarkClass);
+        if (!assignedId) {
+            throughput.addStatement("String batchJson = $L", batchJson);
+            batchJson = CodeBlock.of("batchJson");
+        }
+        builder.addMethod(throughput
+                .addStatement("$T id = objectMapper.readValue(" + post + ".getResponse().getContentAsString(), $T.class).get$L()",
+                        model.idType().box(), benchmarkClass, requests, path, mediaType, "json", dtoClass, capitalize(model.idName()))
+                .addCode("\n")
+                .addStatement("measure($S, iterations, () -> " + post + ")", "create", benchmarkClass, requests, path, mediaType, createJson)
+                .addStatement("measure($S, iterations, () -> $T.perform(mockMvc, $T.get($S, id)))",
+                        "findById", benchmarkClass, requests, path + "/{id}")
+                .addStatement("measure($S, iterations, () -> $T.perform(mockMvc, $T.get($S)))",
+                        "findPage", benchmarkClass, requests, path + "?size=20")
+                .addStatement("measure($S, iterations, () -> $T.perform(mockMvc, $T.put($S, id).contentType($T.APPLICATION_JSON).content(json)))",
+                        "update", benchmarkClass, requests, path + "/{id}", mediaType)
+                .addStatement("measure($S, iterations, () -> " + post + ")", "createBatch", benchmarkClass, requests, path + "/batch",
+                        mediaType, batchJson)
+                .build());
+
+        builder.addMethod(MethodSpec.methodBuilder("measure")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(String.class, "name")
+                .addParameter(TypeName.INT, "iterations")
+                .addParameter(operation, "operation")
+                .addException(Exception.class)
+                .addComment("warm-up: JIT, connection pool, first-time Hibernate metadata")
+                .beginControlFlow("for (int i = 0; i < $T.max(1, iterations / 10); i++)", Math.class)
+                .addStatement("operation.run()")
+                .endControlFlow()
+                .addStatement("long start = $T.nanoTime()", System.class)
+                .beginControlFlow("for (int i = 0; i < iterations; i++)")
+                .addStatement("operation.run()")
+                .endControlFlow()
+                .addStatement("long elapsed = $T.nanoTime() - start", System.class)
+                .addStatement("$T.out.printf($S, name, iterations * 1e9 / elapsed, elapsed / 1e3 / iterations)",
+                        System.class, "springsmith throughput " + entitySimple + ".%s: %.0f ops/s (%.1f us/op)%n")
+                .build());
+
+        builder.addType(TypeSpec.interfaceBuilder("Operation")
+                .addAnnotation(FunctionalInterface.class)
+                .addMethod(MethodSpec.methodBuilder("run")
+                        .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+                        .addException(Exception.class)
+                        .build())
+                .build());
+
+        return builder.build();
+    }
+
+    private TypeSpec buildReactiveRepository(TypeElement entity, String entitySimple) {
         String repoName = entitySimple + "Repository";
-        String entityPkg = elementUtils.getPackageOf(entity).getQualifiedName().toString();
+        String entityPkg = model(entity).packageName();
+        ClassName entityClass = ClassName.get(entityPkg, entitySimple);
 
         Optional<VariableElement> idFieldOpt = findIdField(entity);
-        if (idFieldOpt.isEmpty()) {
-            messager.printMessage(Diagnostic.Kind.WARNING, "Entity " + entitySimple + " has no @Id; skipping repository.");
-            return TypeSpec.interfaceBuilder(repoName).addModifiers(Modifier.PUBLIC).build();
-        }
-        TypeName idType = TypeName.get(idFieldOpt.get().asType());
-        ClassName entityClass = ClassName.get(entityPkg, entitySimple);
-        ParameterizedTypeName superInterface = ParameterizedTypeName.get(
-                ClassName.get("org.springframework.data.jpa.repository", "JpaRepository"),
-                entityClass,
-                idType
-        );
+        TypeName idType = model(entity).idType().box();
+        String idName = idFieldOpt.map(VariableElement::getSimpleName).map(Object::toString).orElse("id");
+
+        ClassName pageable = ClassName.get("org.springframework.data.domain", "Pageable");
+        TypeName fluxOfEntity = ParameterizedTypeName.get(ClassName.get("reactor.core.publisher", "Flux"), entityClass);
 
         return TypeSpec.interfaceBuilder(repoName)
                 .addModifiers(Modifier.PUBLIC)
-                .addSuperinterface(superInterface)
-                .addAnnotation(ClassName.get("org.springframework.stereotype", "Repository"))
+                .addSuperinterface(ParameterizedTypeName.get(
+                        ClassName.get("org.springframework.data.repository.reactive", "ReactiveCrudRepository"), entityClass, idType))
+                .addMethod(MethodSpec.methodBuilder("findAllBy")
+                        .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+                        .returns(fluxOfEntity)
+                        .addParameter(pageable, "pageable")
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("findBy" + capitalize(idName) + "GreaterThan")
+                        .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+                        .returns(fluxOfEntity)
+                        .addParameter(idType, idName)
+                        .addParameter(pageable, "pageable")
+                        .build())
                 .build();
     }
 
-    private TypeSpec buildService(TypeElement entity, String entitySimple) {
+    private TypeSpec buildReactiveService(TypeElement entity, String entitySimple) {
         String serviceName = entitySimple + "Service";
         String dtoName = entitySimple + "DTO";
         String repoName = entitySimple + "Repository";
         String mapperName = entitySimple + "Mapper";
+        String entityPkg = model(entity).packageName();
 
-        String entityPkg = elementUtils.getPackageOf(entity).getQualifiedName().toString();
-
-        ClassName entityClass = ClassName.get(entityPkg, entitySimple);
         ClassName dtoClass = ClassName.get(replaceLastPackageSegment(entityPkg, BASE_PACKAGE_SUFFIX_DTO), dtoName);
         ClassName repoClass = ClassName.get(replaceLastPackageSegment(entityPkg, BASE_PACKAGE_SUFFIX_REPO), repoName);
         ClassName mapperClass = ClassName.get(replaceLastPackageSegment(entityPkg, BASE_PACKAGE_SUFFIX_MAPPER), mapperName);
+        ClassName resultClass = ClassName.get(replaceLastPackageSegment(entityPkg, BASE_PACKAGE_SUFFIX_DTO), entitySimple + "BatchItemResult");
 
         Optional<VariableElement> idFieldOpt = findIdField(entity);
         String idFieldName = idFieldOpt.map(VariableElement::getSimpleName).map(Object::toString).orElse("id");
-        TypeName idType = idFieldOpt.map(f -> TypeName.get(f.asType())).orElse(ClassName.get(Long.class));
+        TypeName idType = model(entity).idType();
+
+        ClassName mono = ClassName.get("reactor.core.publisher", "Mono");
+        ClassName flux = ClassName.get("reactor.core.publisher", "Flux");
+        ClassName list = ClassName.get(List.class);
+        ClassName pageable = ClassName.get("org.springframework.data.domain", "Pageable");
+        ClassName pageRequest = ClassName.get("org.springframework.data.domain", "PageRequest");
+        ClassName page = ClassName.get("org.springframework.data.domain", "Page");
+        ClassName notFound = ClassName.get("jakarta.persistence", "EntityNotFoundException");
+        ClassName transactional = ClassName.get("org.springframework.transaction.annotation", "Transactional");
+        ClassName operator = ClassName.get("org.springframework.transaction.reactive", "TransactionalOperator");
+        ClassName valueAnno = ClassName.get("org.springframework.beans.factory.annotation", "Value");
+        AnnotationSpec readOnly = AnnotationSpec.builder(transactional).addMember("readOnly", "true").build();
+        TypeName results = ParameterizedTypeName.get(list, resultClass);
+        TypeName monoOfDto = ParameterizedTypeName.get(mono, dtoClass);
+        TypeName fluxOfDto = ParameterizedTypeName.get(flux, dtoClass);
+        TypeName pageOfDto = ParameterizedTypeName.get(page, dtoClass);
+        String repo = decap(repoName);
+        String mapper = decap(mapperName);
 
         TypeSpec.Builder builder = TypeSpec.classBuilder(serviceName)
                 .addModifiers(Modifier.PUBLIC)
                 .addAnnotation(ClassName.get("org.springframework.stereotype", "Service"));
+        builder.addField(FieldSpec.builder(repoClass, repo, Modifier.PRIVATE, Modifier.FINAL).build());
+        builder.addField(FieldSpec.builder(mapperClass, mapper, Modifier.PRIVATE, Modifier.FINAL).build());
+        builder.addField(FieldSpec.builder(TypeName.INT, "maxPageSize", Modifier.PRIVATE, Modifier.FINAL).build());
+        builder.addField(FieldSpec.builder(operator, "transactionalOperator", Modifier.PRIVATE, Modifier.FINAL).build());
+        builder.addField(FieldSpec.builder(TypeName.INT, "batchChunkSize", Modifier.PRIVATE, Modifier.FINAL).build());
+        builder.addField(FieldSpec.builder(TypeName.BOOLEAN, "batchAtomic", Modifier.PRIVATE, Modifier.FINAL).build());
 
-        builder.addField(FieldSpec.builder(repoClass, decap(repoName), Modifier.PRIVATE, Modifier.FINAL).build());
-        builder.addField(FieldSpec.builder(mapperClass, decap(mapperName), Modifier.PRIVATE, Modifier.FINAL).build());
+        builder.addMethod(MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(repoClass, repo)
+                .addParameter(mapperClass, mapper)
+                .addParameter(ClassName.get("org.springframework.transaction", "ReactiveTransactionManager"), "transactionManager")
+                .addParameter(ParameterSpec.builder(TypeName.INT, "maxPageSize")
+                        .addAnnotation(AnnotationSpec.builder(valueAnno)
+                                .addMember("value", "$S", "${springsmith.pagination.max-page-size:" + maxPageSize + "}")
+                                .build())
+                        .build())
+                .addParameter(ParameterSpec.builder(TypeName.INT, "batchChunkSize")
+                        .addAnnotation(AnnotationSpec.builder(valueAnno)
+                                .addMember("value", "$S", "${springsmith.batch.chunk-size:" + batchChunkSize + "}")
+                                .build())
+                        .build())
+                .addParameter(ParameterSpec.builder(TypeName.BOOLEAN, "batchAtomic")
+                        .addAnnotation(AnnotationSpec.builder(valueAnno)
+                                .addMember("value", "$S", "${springsmith.batch.atomic:true}")
+                                .build())
+                        .build())
+                .addStatement("this.$N = $N", repo, repo)
+                .addStatement("this.$N = $N", mapper, mapper)
+                .addStatement("this.maxPageSize = maxPageSize")
+                .addStatement("this.transactionalOperator = $T.create(transactionManager)", operator)
+                .addStatement("this.batchChunkSize = batchChunkSize")
+                .addStatement("this.batchAtomic = batchAtomic")
+                .build());
 
-        MethodSpec constructor = MethodSpec.constructorBuilder()
+        builder.addMethod(MethodSpec.methodBuilder("findAll")
                 .addModifiers(Modifier.PUBLIC)
-                .addParameter(repoClass, decap(repoName))
-                .addParameter(mapperClass, decap(mapperName))
-                .addStatement("this.$N = $N", decap(repoName), decap(repoName))
-                .addStatement("this.$N = $N", decap(mapperName), decap(mapperName))
-                .build();
-        builder.addMethod(constructor);
+                .addAnnotation(readOnly)
+                .returns(ParameterizedTypeName.get(mono, pageOfDto))
+                .addParameter(pageable, "pageable")
+                .addStatement("$T limited = limit(pageable)", pageable)
+                .addStatement("return $N.findAllBy(limited).map($N::to$LDTO).collectList()\n$>.zipWith($N.count())\n"
+                                + ".<$T>map(t -> new $T<>(t.getT1(), limited, t.getT2()))$<",
+                        repo, mapper, entitySimple, repo, pageOfDto, ClassName.get("org.springframework.data.domain", "PageImpl"))
+                .build());
 
-        MethodSpec findAll = MethodSpec.methodBuilder("findAll")
+        builder.addMethod(MethodSpec.methodBuilder("findAfter")
                 .addModifiers(Modifier.PUBLIC)
-                .returns(ParameterizedTypeName.get(ClassName.get(List.class), dtoClass))
-                .addStatement("$T entities = $N.findAll()", ParameterizedTypeName.get(ClassName.get(List.class), entityClass), decap(repoName))
-                .addStatement("return entities.stream().map($N::to$LDTO).collect($T.toList())",
-                        decap(mapperName), entitySimple, ClassName.get("java.util.stream", "Collectors"))
-                .build();
-        builder.addMethod(findAll);
+                .addAnnotation(readOnly)
+                .returns(fluxOfDto)
+                .addParameter(idType, "after")
+                .addParameter(TypeName.INT, "size")
+                .addStatement("$T pageable = $T.of(0, $T.min($T.max(size, 1), maxPageSize), $T.by($S))",
+                        pageable, pageRequest, Math.class, Math.class, ClassName.get("org.springframework.data.domain", "Sort"), idFieldName)
+                .addStatement("return (after == null ? $N.findAllBy(pageable) : $N.findBy$LGreaterThan(after, pageable))\n$>.map($N::to$LDTO)$<",
+                        repo, repo, capitalize(idFieldName), mapper, entitySimple)
+                .build());
+
+        if (streaming) {
+            // R2DBC streams rows with backpressure: nothing is buffered beyond what the client consumes
+            builder.addMethod(MethodSpec.methodBuilder("streamAll")
+                    .addModifiers(Modifier.PUBLIC)
+                    .addAnnotation(readOnly)
+                    .returns(fluxOfDto)
+                    .addStatement("return $N.findAll().map($N::to$LDTO)", repo, mapper, entitySimple)
+                    .build());
+        }
+
+        builder.addMethod(MethodSpec.methodBuilder("limit")
+                .addModifiers(Modifier.PRIVATE)
+                .returns(pageable)
+                .addParameter(pageable, "pageable")
+                .beginControlFlow("if (pageable.isUnpaged())")
+                .addStatement("return $T.of(0, maxPageSize)", pageRequest)
+                .endControlFlow()
+                .beginControlFlow("if (pageable.getPageSize() > maxPageSize)")
+                .addStatement("return $T.of(pageable.getPageNumber(), maxPageSize, pageable.getSort())", pageRequest)
+                .endControlFlow()
+                .addStatement("return pageable")
+                .build());
 
-        MethodSpec findById = MethodSpec.methodBuilder("findById")
+        builder.addMethod(MethodSpec.methodBuilder("findById")
                 .addModifiers(Modifier.PUBLIC)
-                .returns(dtoClass)
+                .addAnnotation(readOnly)
+                .returns(monoOfDto)
                 .addParameter(idType, idFieldName)
-                .addStatement("$T entity = $N.findById($N).orElseThrow(() -> new $T($S))",
-                        entityClass, decap(repoName), idFieldName,
-                        ClassName.get("jakarta.persistence", "EntityNotFoundException"),
-                        entitySimple + " not found with id " + "\" + " + idFieldName + " + \"")
-                .addStatement("return $N.to$LDTO(entity)", decap(mapperName), entitySimple)
-                .build();
-        builder.addMethod(findById);
+                .addStatement("return $N.findById($N).map($N::to$LDTO)\n$>.switchIfEmpty($T.error(() -> new $T($S + $N)))$<",
+                        repo, idFieldName, mapper, entitySimple, mono, notFound, entitySimple + " not found with id ", idFieldName)
+                .build());
 
-        MethodSpec save = MethodSpec.methodBuilder("save")
+        builder.addMethod(MethodSpec.methodBuilder("save")
                 .addModifiers(Modifier.PUBLIC)
-                .returns(dtoClass)
+                .addAnnotation(transactional)
+                .returns(monoOfDto)
                 .addParameter(dtoClass, "dto")
-                .addStatement("$T entity = $N.to$L(dto)", entityClass, decap(mapperName), entitySimple)
-                .addStatement("$T saved = $N.save(entity)", entityClass, decap(repoName))
-                .addStatement("return $N.to$LDTO(saved)", decap(mapperName), entitySimple)
-                .build();
-        builder.addMethod(save);
+                .addStatement("return $N.save($N.to$L(dto)).map($N::to$LDTO)", repo, mapper, entitySimple, mapper, entitySimple)
+                .build());
+
+        for (String op : new String[]{"update", "patch"}) {
+            builder.addMethod(MethodSpec.methodBuilder(op)
+                    .addModifiers(Modifier.PUBLIC)
+                    .addAnnotation(transactional)
+                    .returns(monoOfDto)
+                    .addParameter(idType, idFieldName)
+                    .addParameter(op.equals("patch") ? patchDto(entity) : dtoClass, "dto")
+                    .addCode("return $N.findById($N)\n$>", repo, idFieldName)
+                    .addCode(".switchIfEmpty($T.error(() -> new $T($S + $N)))\n", mono, notFound, entitySimple + " not found with id ", idFieldName)
+                    .addCode(".flatMap(existing -> {\n$>")
+                    .addStatement("$N.$L$L(dto, existing)", mapper, op, entitySimple)
+                    .addStatement("return $N.save(existing)", repo)
+                    .addCode("$<})\n")
+                    .addCode(".map($N::to$LDTO);\n$<", mapper, entitySimple)
+                    .build());
+        }
 
-        MethodSpec update = MethodSpec.methodBuilder("update")
+        builder.addMethod(MethodSpec.methodBuilder("delete")
                 .addModifiers(Modifier.PUBLIC)
-                .returns(dtoClass)
+                .addAnnotation(transactional)
+                .returns(ParameterizedTypeName.get(mono, ClassName.get(Void.class)))
                 .addParameter(idType, idFieldName)
-                .addParameter(dtoClass, "dto")
-                .addStatement("$T existing = $N.findById($N).orElseThrow(() -> new $T($S))",
-                        entityClass, decap(repoName), idFieldName,
-                        ClassName.get("jakarta.persistence", "EntityNotFoundException"),
-                        entitySimple + " not found with id " + "\" + " + idFieldName + " + \"")
-                .addStatement("existing = $N.to$L(dto)", decap(mapperName), entitySimple)
-                .addStatement("$T updated = $N.save(existing)", entityClass, decap(repoName))
-                .addStatement("return $N.to$LDTO(updated)", decap(mapperName), entitySimple)
-                .build();
-        builder.addMethod(update);
+                .addStatement("return $N.deleteById($N)", repo, idFieldName)
+                .build());
 
-        MethodSpec delete = MethodSpec.methodBuilder("delete")
+        // ===== batch operations: one result per item =====
+        TypeName monoOfResults = ParameterizedTypeName.get(mono, results);
+        builder.addMethod(MethodSpec.methodBuilder("saveAll")
                 .addModifiers(Modifier.PUBLIC)
-                .addParameter(idType, idFieldName)
-                .addStatement("$N.deleteById($N)", decap(repoName), idFieldName)
-                .build();
-        builder.addMethod(delete);
+                .returns(monoOfResults)
+                .addParameter(ParameterizedTypeName.get(list, dtoClass), "dtos")
+                .addStatement("return runBatch(dtos, (dto, index) -> $N.save($N.to$L(dto)).map($N::to$LDTO)\n$>"
+                                + ".map(saved -> $T.success(index, saved.get$L(), saved)))$<",
+                        repo, mapper, entitySimple, mapper, entitySimple, resultClass, capitalize(idFieldName))
+                .build());
+        builder.addMethod(MethodSpec.methodBuilder("updateAll")
+                .addModifiers(Modifier.PUBLIC)
+                .returns(monoOfResults)
+                .addParameter(ParameterizedTypeName.get(list, dtoClass), "dtos")
+                .addStatement("return runBatch(dtos, (dto, index) -> dto.get$L() == null\n$>"
+                                + "? $T.just($T.failure(index, $S))\n"
+                                + ": update(dto.get$L(), dto).map(updated -> $T.success(index, updated.get$L(), updated)))$<",
+                        capitalize(idFieldName), mono, resultClass, entitySimple + " id is required",
+                        capitalize(idFieldName), resultClass, capitalize(idFieldName))
+                .build());
+        builder.addMethod(MethodSpec.methodBuilder("deleteAll")
+                .addModifiers(Modifier.PUBLIC)
+                .returns(monoOfResults)
+                .addParameter(ParameterizedTypeName.get(list, idType.box()), "ids")
+                .addStatement("return runBatch(ids, (id, index) -> $N.existsById(id).flatMap(exists -> exists\n$>"
+                                + "? $N.deleteById(id).thenReturn($T.success(index, id, null))\n"
+                                + ": $T.just($T.failure(index, $S + id))))$<",
+                        repo, repo, resultClass, mono, resultClass, entitySimple + " not found with id ")
+                .build());
+
+        // atomic: the whole request in one reactive transaction (R2DBC has no persistence context to flush, so there is
+        // nothing to chunk); otherwise one transaction per chunk of batchChunkSize items, replaying a failed chunk item
+        // by item so that only the faulty items are reported as failed
+        TypeVariableName t = TypeVariableName.get("T");
+        TypeName monoOfResult = ParameterizedTypeName.get(mono, resultClass);
+        builder.addMethod(MethodSpec.methodBuilder("runBatch")
+                .addModifiers(Modifier.PRIVATE)
+                .addTypeVariable(t)
+                .returns(monoOfResults)
+                .addParameter(ParameterizedTypeName.get(list, t), "items")
+                .addParameter(ParameterizedTypeName.get(ClassName.get("java.util.function", "BiFunction"),
+                        t, ClassName.get(Integer.class), monoOfResult), "operation")
+                .addStatement("$T<$T, $T> item = index -> $T.defer(() -> operation.apply(items.get(index), index))",
+                        ClassName.get("java.util.function", "Function"), Integer.class, monoOfResult, mono)
+                .beginControlFlow("if (batchAtomic)")
+                .addStatement("return transactionalOperator.transactional($T.range(0, items.size()).concatMap(item).collectList())", flux)
+                .endControlFlow()
+                .addCode("return $T.range(0, items.size())\n$>", flux)
+                .addCode(".buffer(batchChunkSize)\n")
+                .addCode(".concatMap(chunk -> transactionalOperator.transactional($T.fromIterable(chunk).concatMap(item).collectList())\n$>", flux)
+                .addCode(".onErrorResume(ex -> $T.fromIterable(chunk)\n$>", flux)
+                .addCode(".concatMap(index -> transactionalOperator.transactional(item.apply(index))\n$>")
+                .addCode(".onErrorResume(itemEx -> $T.just($T.failure(index, batchError(itemEx)))))\n$<", mono, resultClass)
+                .addCode(".collectList()))\n$<$<")
+                .addCode(".concatMapIterable(chunkResults -> chunkResults)\n")
+                .addCode(".collectList();\n$<")
+                .build());
+        builder.addMethod(batchError(notFound));
 
         return builder.build();
     }
 
-    private TypeSpec buildController(TypeElement entity, String entitySimple) {
+    private TypeSpec buildReactiveController(TypeElement entity, String entitySimple) {
         String controllerName = entitySimple + "Controller";
         String serviceName = entitySimple + "Service";
         String dtoName = entitySimple + "DTO";
-
-        String entityPkg = elementUtils.getPackageOf(entity).getQualifiedName().toString();
+        String entityPkg = model(entity).packageName();
         String path = "/" + pluralize(lowerFirst(entitySimple));
+        String plural = pluralize(entitySimple);
 
         ClassName serviceClass = ClassName.get(replaceLastPackageSegment(entityPkg, BASE_PACKAGE_SUFFIX_SERVICE), serviceName);
         ClassName dtoClass = ClassName.get(replaceLastPackageSegment(entityPkg, BASE_PACKAGE_SUFFIX_DTO), dtoName);
+        ClassName resultClass = ClassName.get(replaceLastPackageSegment(entityPkg, BASE_PACKAGE_SUFFIX_DTO), entitySimple + "BatchItemResult");
 
         Optional<VariableElement> idFieldOpt = findIdField(entity);
-        TypeName idType = idFieldOpt.map(f -> TypeName.get(f.asType())).orElse(ClassName.get(Long.class));
+        TypeName idType = model(entity).idType();
         String idName = idFieldOpt.map(VariableElement::getSimpleName).map(Object::toString).orElse("id");
 
+        String web = "org.springframework.web.bind.annotation";
+        ClassName mono = ClassName.get("reactor.core.publisher", "Mono");
+        ClassName flux = ClassName.get("reactor.core.publisher", "Flux");
+        ClassName responseEntity = ClassName.get("org.springframework.http", "ResponseEntity");
+        ClassName httpStatus = ClassName.get("org.springframework.http", "HttpStatus");
+        ClassName pageable = ClassName.get("org.springframework.data.domain", "Pageable");
+        ClassName sort = ClassName.get("org.springframework.data.domain", "Sort");
+        ClassName list = ClassName.get(List.class);
+        TypeName results = ParameterizedTypeName.get(list, resultClass);
+        TypeName batchResponse = ParameterizedTypeName.get(responseEntity, results);
+        TypeName params = ParameterizedTypeName.get(ClassName.get("org.springframework.util", "MultiValueMap"),
+                ClassName.get(String.class), ClassName.get(String.class));
+        String service = decap(serviceName);
+        int defaultSize = Math.min(DEFAULT_PAGE_SIZE, maxPageSize);
+
         TypeSpec.Builder builder = TypeSpec.classBuilder(controllerName)
                 .addModifiers(Modifier.PUBLIC)
-                .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", "RestController")).build())
-                .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", "RequestMapping"))
+                .addAnnotation(ClassName.get(web, "RestController"))
+                .addAnnotation(AnnotationSpec.builder(ClassName.get(web, "RequestMapping"))
                         .addMember("value", "$S", "/api" + path)
                         .build());
-
-        builder.addField(FieldSpec.builder(serviceClass, decap(serviceName), Modifier.PRIVATE, Modifier.FINAL).build());
-        MethodSpec constructor = MethodSpec.constructorBuilder()
-                .addModifiers(Modifier.PUBLIC)
-                .addParameter(serviceClass, decap(serviceName))
-                .addStatement("this.$N = $N", decap(serviceName), decap(serviceName))
-                .build();
-        builder.addMethod(constructor);
-
-        MethodSpec getAll = MethodSpec.methodBuilder("getAll" + pluralize(entitySimple))
+        builder.addField(FieldSpec.builder(serviceClass, service, Modifier.PRIVATE, Modifier.FINAL).build());
+        MethodSpec.Builder constructor = MethodSpec.constructorBuilder()
                 .addModifiers(Modifier.PUBLIC)
-                .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", "GetMapping")).build())
-                .returns(ParameterizedTypeName.get(ClassName.get(List.class), dtoClass))
-                .addStatement("return $N.findAll()", decap(serviceName))
-                .build();
-        builder.addMethod(getAll);
+                .addParameter(serviceClass, service)
+                .addStatement("this.$N = $N", service, service);
+        Weaver weaver = new Weaver(builder, entitySimple).binaryFormats();
 
-        MethodSpec getById = MethodSpec.methodBuilder("get" + entitySimple + "ById")
-                .addModifiers(Modifier.PUBLIC)
-                .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", "GetMapping"))
-                        .addMember("value", "$S", "/{" + idName + "}")
+        ParameterSpec pathId = ParameterSpec.builder(idType, idName)
+                .addAnnotation(AnnotationSpec.builder(ClassName.get(web, "PathVariable"))
+                        .addMember("value", "$S", idName)
                         .build())
-                .addParameter(ParameterSpec.builder(idType, idName)
-                        .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", "PathVariable")).build())
-                        .build())
-                .returns(ParameterizedTypeName.get(ClassName.get("org.springframework.http", "ResponseEntity"), dtoClass))
-                .addStatement("$T dto = $N.findById($N)", dtoClass, decap(serviceName), idName)
-                .addStatement("return $T.ok(dto)", ClassName.get("org.springframework.http", "ResponseEntity"))
                 .build();
-        builder.addMethod(getById);
+        ParameterSpec body = ParameterSpec.builder(dtoClass, "dto")
+                .addAnnotation(ClassName.get(web, "RequestBody"))
+                .build();
+        ParameterSpec patchBody = ParameterSpec.builder(patchDto(entity), "dto")
+                .addAnnotation(ClassName.get(web, "RequestBody"))
+                .build();
 
-        MethodSpec create = MethodSpec.methodBuilder("create" + entitySimple)
+        // Spring Data registers no Pageable resolver for WebFlux: page, size and sort are read from the query string
+        weaver.add(MethodSpec.methodBuilder("getAll" + plural)
                 .addModifiers(Modifier.PUBLIC)
-                .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", "PostMapping")).build())
-                .addParameter(ParameterSpec.builder(dtoClass, "dto")
-                        .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", "RequestBody")).build())
+                .addAnnotation(ClassName.get(web, "GetMapping"))
+                .addParameter(ParameterSpec.builder(params, "params")
+                        .addAnnotation(ClassName.get(web, "RequestParam"))
                         .build())
-                .returns(ParameterizedTypeName.get(ClassName.get("org.springframework.http", "ResponseEntity"), dtoClass))
-                .addStatement("$T created = $N.save(dto)", dtoClass, decap(serviceName))
-                .addStatement("return $T.status($T.CREATED).body(created)",
-                        ClassName.get("org.springframework.http", "ResponseEntity"),
-                        ClassName.get("org.springframework.http", "HttpStatus"))
-                .build();
-        builder.addMethod(create);
+                .returns(ParameterizedTypeName.get(mono, ParameterizedTypeName.get(ClassName.get("org.springframework.data.domain", "Page"), dtoClass)))
+                .addStatement("return $N.findAll(pageable(params))", service)
+                .build());
 
-        MethodSpec update = MethodSpec.methodBuilder("update" + entitySimple)
+        weaver.add(MethodSpec.methodBuilder("get" + plural + "After")
                 .addModifiers(Modifier.PUBLIC)
-                .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", "PutMapping"))
-                        .addMember("value", "$S", "/{" + idName + "}")
+                .addAnnotation(AnnotationSpec.builder(ClassName.get(web, "GetMapping"))
+                        .addMember("value", "$S", "/keyset")
                         .build())
-                .addParameter(ParameterSpec.builder(idType, idName)
-                        .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", "PathVariable")).build())
+                .addParameter(ParameterSpec.builder(idType.box(), "after")
+                        .addAnnotation(AnnotationSpec.builder(ClassName.get(web, "RequestParam"))
+                                .addMember("value", "$S", "after")
+                                .addMember("required", "false")
+                                .build())
                         .build())
-                .addParameter(ParameterSpec.builder(dtoClass, "dto")
-                        .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", "RequestBody")).build())
+                .addParameter(ParameterSpec.builder(TypeName.INT, "size")
+                        .addAnnotation(AnnotationSpec.builder(ClassName.get(web, "RequestParam"))
+                                .addMember("value", "$S", "size")
+                                .addMember("defaultValue", "$S", String.valueOf(defaultSize))
+                                .build())
                         .build())
-                .returns(ParameterizedTypeName.get(ClassName.get("org.springframework.http", "ResponseEntity"), dtoClass))
-                .addStatement("$T updated = $N.update($N, dto)", dtoClass, decap(serviceName), idName)
-                .addStatement("return $T.ok(updated)", ClassName.get("org.springframework.http", "ResponseEntity"))
-                .build();
-        builder.addMethod(update);
+                .returns(ParameterizedTypeName.get(flux, dtoClass))
+                .addStatement("return $N.findAfter(after, size)", service)
+                .build());
 
-        MethodSpec delete = MethodSpec.methodBuilder("delete" + entitySimple)
+        if (streaming) {
+            weaver.add(MethodSpec.methodBuilder("stream" + plural)
+                    .addModifiers(Modifier.PUBLIC)
+                    .addAnnotation(AnnotationSpec.builder(ClassName.get(web, "GetMapping"))
+                            .addMember("value", "$S", "/stream")
+                            .addMember("produces", "$T.APPLICATION_NDJSON_VALUE", ClassName.get("org.springframework.http", "MediaType"))
+                            .build())
+                    .returns(ParameterizedTypeName.get(flux, dtoClass))
+                    .addStatement("return $N.streamAll()", service)
+                    .build());
+        }
+
+        TypeName monoOfResponse = ParameterizedTypeName.get(mono, ParameterizedTypeName.get(responseEntity, dtoClass));
+        weaver.add(MethodSpec.methodBuilder("get" + entitySimple + "ById")
                 .addModifiers(Modifier.PUBLIC)
-                .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", "DeleteMapping"))
+                .addAnnotation(AnnotationSpec.builder(ClassName.get(web, "GetMapping"))
                         .addMember("value", "$S", "/{" + idName + "}")
                         .build())
-                .addParameter(ParameterSpec.builder(idType, idName)
-                        .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", "PathVariable")).build())
+                .addParameter(pathId)
+                .returns(monoOfResponse)
+                .addStatement("return $N.findById($N).map($T::ok)", service, idName, responseEntity)
+                .build());
+
+        weaver.add(MethodSpec.methodBuilder("create" + entitySimple)
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(ClassName.get(web, "PostMapping"))
+                .addParameter(body)
+                .returns(monoOfResponse)
+                .addStatement("return $N.save(dto).map(created -> $T.status($T.CREATED).body(created))", service, responseEntity, httpStatus)
+                .build());
+
+        for (String[] op : new String[][]{{"update", "PutMapping"}, {"patch", "PatchMapping"}}) {
+            weaver.add(MethodSpec.methodBuilder(op[0] + entitySimple)
+                    .addModifiers(Modifier.PUBLIC)
+                    .addAnnotation(AnnotationSpec.builder(ClassName.get(web, op[1]))
+                            .addMember("value", "$S", "/{" + idName + "}")
+                            .build())
+                    .addParameter(pathId)
+                    .addParameter(op[0].equals("patch") ? patchBody : body)
+                    .returns(monoOfResponse)
+                    .addStatement("return $N.$L($N, dto).map($T::ok)", service, op[0], idName, responseEntity)
+                    .build());
+        }
+
+        weaver.add(MethodSpec.methodBuilder("delete" + entitySimple)
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(AnnotationSpec.builder(ClassName.get(web, "DeleteMapping"))
+                        .addMember("value", "$S", "/{" + idName + "}")
                         .build())
-                .returns(ParameterizedTypeName.get(
-                        ClassName.get("org.springframework.http", "ResponseEntity"),
-                        ClassName.get(Void.class)))
-                .addStatement("$N.delete($N)", decap(serviceName), idName)
-                .addStatement("return $T.noContent().build()", ClassName.get("org.springframework.http", "ResponseEntity"))
-                .build();
-        builder.addMethod(delete);
+                .addParameter(pathId)
+                .returns(ParameterizedTypeName.get(mono, ParameterizedTypeName.get(responseEntity, ClassName.get(Void.class))))
+                .addStatement("return $N.delete($N).then($T.fromSupplier(() -> $T.noContent().<$T>build()))",
+                        service, idName, mono, responseEntity, Void.class)
+                .build());
+
+        String[][] batchOps = {
+                {"PostMapping", "create", "saveAll", "CREATED"},
+                {"PutMapping", "update", "updateAll", "OK"},
+                {"DeleteMapping", "delete", "deleteAll", "OK"}
+        };
+        for (String[] op : batchOps) {
+            boolean delete = op[2].equals("deleteAll");
+            weaver.add(MethodSpec.methodBuilder(op[1] + plural)
+                    .addModifiers(Modifier.PUBLIC)
+                    .addAnnotation(AnnotationSpec.builder(ClassName.get(web, op[0]))
+                            .addMember("value", "$S", "/batch")
+                            .build())
+                    .addParameter(ParameterSpec.builder(ParameterizedTypeName.get(list, delete ? idType.box() : dtoClass), delete ? "ids" : "dtos")
+                            .addAnnotation(ClassName.get(web, "RequestBody"))
+                            .build())
+                    .returns(ParameterizedTypeName.get(mono, batchResponse))
+                    .addStatement("return $N.$N($N).map(results -> batchResponse(results, $T.$L))",
+                            service, op[2], delete ? "ids" : "dtos", httpStatus, op[3])
+                    .build());
+        }
+
+        weaver.add(MethodSpec.methodBuilder("batchResponse")
+                .addModifiers(Modifier.PRIVATE)
+                .returns(batchResponse)
+                .addParameter(results, "results")
+                .addParameter(httpStatus, "status")
+                .addStatement("boolean failed = results.stream().anyMatch(r -> !r.isSuccess())")
+                .addStatement("return $T.status(failed ? $T.MULTI_STATUS : status).body(results)", responseEntity, httpStatus)
+                .build());
 
+        // same query syntax as Spring Data's MVC resolver: ?page=0&size=20&sort=title,desc
+        weaver.add(MethodSpec.methodBuilder("pageable")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .returns(pageable)
+                .addParameter(params, "params")
+                .addStatement("$T page = params.getFirst($S)", String.class, "page")
+                .addStatement("$T size = params.getFirst($S)", String.class, "size")
+                .addStatement("$T orders = new $T<>()", ParameterizedTypeName.get(list, sort.nestedClass("Order")), ArrayList.class)
+                .beginControlFlow("for ($T value : params.getOrDefault($S, $T.of()))", String.class, "sort", List.class)
+                .addStatement("$T[] parts = value.split($S)", String.class, ",")
+                .addStatement("orders.add(parts.length > 1 && parts[1].equalsIgnoreCase($S) ? $T.Order.desc(parts[0]) : $T.Order.asc(parts[0]))",
+                        "desc", sort, sort)
+                .endControlFlow()
+                .addStatement("checkSort($T.by(orders))", sort)
+                .beginControlFlow("try")
+                .addStatement("return $T.of(page == null ? 0 : $T.max($T.parseInt(page), 0),\n$>size == null ? $L : $T.max($T.parseInt(size), 1), $T.by(orders))$<",
+                        ClassName.get("org.springframework.data.domain", "PageRequest"), Math.class, Integer.class,
+                        defaultSize, Math.class, Integer.class, sort)
+                .nextControlFlow("catch ($T ex)", NumberFormatException.class)
+                .addStatement("throw new $T($T.BAD_REQUEST, $S, ex)", ClassName.get("org.springframework.web.server", "ResponseStatusException"),
+                        httpStatus, "page and size must be integers")
+                .endControlFlow()
+                .build());
+        addSortCheck(builder, entity, false);
+        weaver.add(notFoundHandler());
+        weaver.finish(constructor);
         return builder.build();
     }
 
+    // the services report a missing id with EntityNotFoundException, whichever layer looks it up
+    private MethodSpec notFoundHandler() {
+        ClassName notFound = ClassName.get("jakarta.persistence", "EntityNotFoundException");
+        ClassName errorResponse = ClassName.get("org.springframework.web", "ErrorResponse");
+        return MethodSpec.methodBuilder("notFound")
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(AnnotationSpec.builder(ClassName.get("org.springframework.web.bind.annotation", "ExceptionHandler"))
+                        .addMember("value", "$T.class", notFound)
+                        .build())
+                .returns(errorResponse)
+                .addParameter(notFound, "ex")
+                .addStatement("return $T.create(ex, $T.NOT_FOUND, ex.getMessage())",
+                        errorResponse, ClassName.get("org.springframework.http", "HttpStatus"))
+                .build();
+    }
+
     private Optional<VariableElement> findIdField(TypeElement entity) {
-        for (VariableElement field : ElementFilter.fieldsIn(entity.getEnclosedElements())) {
-            if (hasAnnotation(field, "javax.persistence.Id") ||
-                    hasAnnotation(field, "jakarta.persistence.Id")) {
-                return Optional.of(field);
+        return model(entity).idField();
+    }
+
+    // "select new <DTO>(...) from <Entity> e left join ..." or empty when some DTO field is not a column
+    private Optional<String> projectionQuery(TypeElement entity) {
+        List<DtoField> fields = dtoFields(entity);
+        if (fields.isEmpty() || findIdField(entity).isEmpty()
+                || fields.stream().anyMatch(f -> !f.selectable())) {
+            return Optional.empty();
+        }
+        String entityPkg = model(entity).packageName();
+        String dtoFqn = replaceLastPackageSegment(entityPkg, BASE_PACKAGE_SUFFIX_DTO) + "." + entity.getSimpleName() + "DTO";
+
+        List<String> selections = new ArrayList<>();
+        StringBuilder joins = new StringBuilder();
+        int aliases = 0;
+        for (DtoField field : fields) {
+            if (field.relation() == null) {
+                selections.add("e." + field.path());
+            } else {
+                // left join keeps rows whose relation is null
+                String alias = "r" + aliases++;
+                joins.append(" left join e.").append(field.relation()).append(' ').append(alias);
+                selections.add(alias + "." + field.path());
             }
         }
-        return Optional.empty();
+        return Optional.of("select new " + dtoFqn + "(" + String.join(", ", selections) + ") from "
+                + model(entity).entityName() + " e" + joins);
     }
 
-    private boolean hasAnnotation(Element e, String annotationFqn) {
-        for (AnnotationMirror am : e.getAnnotationMirrors()) {
-            if (am.getAnnotationType().toString().equals(annotationFqn)) return true;
+    private String entityName(TypeElement entity) {
+        for (AnnotationMirror am : entity.getAnnotationMirrors()) {
+            if (entityAnnotations.contains(am.getAnnotationType().asElement())) {
+                for (var entry : am.getElementValues().entrySet()) {
+                    if (entry.getKey().getSimpleName().contentEquals("name")) {
+                        String name = entry.getValue().getValue().toString();
+                        if (!name.isEmpty()) return name;
+                    }
+                }
+            }
         }
-        return false;
+        return entity.getSimpleName().toString();
+    }
+
+    private Optional<VariableElement> findConcurrencyField(TypeElement entity) {
+        return model(entity).concurrencyField();
+    }
+
+    private Optional<VariableElement> findVersionField(TypeElement entity) {
+        return model(entity).versionField();
     }
 
-    private boolean isCollection(VariableElement field) {
-        TypeMirror t = field.asType();
-        return typeUtils.isAssignable(t, elementUtils.getTypeElement("java.util.Collection").asType())
-                || typeUtils.isAssignable(t, elementUtils.getTypeElement("java.util.List").asType())
-                || typeUtils.isAssignable(t, elementUtils.getTypeElement("java.util.Set").asType());
+    private boolean hasAnnotation(Element e, Set<Element> annotationTypes) {
+        for (AnnotationMirror am : e.getAnnotationMirrors()) {
+            if (annotationTypes.contains(am.getAnnotationType().asElement())) return true;
+        }
+        return false;
     }
 
-    private String replaceLastPackageSegment(String original, String newLastSegment) {
+    private static String replaceLastPackageSegment(String original, String newLastSegment) {
         int lastDot = original.lastIndexOf('.');
         if (lastDot == -1) {
             return newLastSegment;
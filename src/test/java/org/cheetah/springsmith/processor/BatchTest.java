@@ -0,0 +1,148 @@
+package org.cheetah.springsmith.processor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.lang.reflect.InvocationTargetException;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.http.ResponseEntity;
+
+// Compiles an entity and runs the generated batch endpoints: a non-atomic batch replays a failed chunk item by item and
+// answers 207 with per-item results, an item without an id fails on its own, and an atomic batch rolls back as a whole
+class BatchTest {
+
+    private static final String ENTITY = """
+            package com.example.entity;
+
+            import jakarta.persistence.Column;
+            import jakarta.persistence.Entity;
+            import jakarta.persistence.GeneratedValue;
+            import jakarta.persistence.Id;
+
+            @Entity
+            public class Product {
+                @Id
+                @GeneratedValue
+                private Long id;
+                @Column(nullable = false)
+                private String name;
+
+                public Long getId() { return id; }
+                public void setId(Long id) { this.id = id; }
+                public String getName() { return name; }
+                public void setName(String name) { this.name = name; }
+            }
+            """;
+
+    @TempDir
+    Path dir;
+
+    private URLClassLoader loader;
+    private AnnotationConfigApplicationContext context;
+    private Object controller;
+
+    @BeforeEach
+    void compile() throws Exception {
+        loader = GeneratedApplication.compile(dir, Map.of("Product", ENTITY));
+    }
+
+    @AfterEach
+    void stop() throws Exception {
+        if (context != null) {
+            context.close();
+        }
+        loader.close();
+    }
+
+    @Test
+    void failedChunkIsReplayedItemByItem() throws Exception {
+        start(false);
+
+        ResponseEntity<?> response = (ResponseEntity<?>) GeneratedApplication.call(controller, "createProducts",
+                List.of(dto(null, "a"), dto(null, "b"), dto(null, null), dto(null, "d")));
+
+        assertEquals(207, response.getStatusCode().value());
+        List<?> results = (List<?>) response.getBody();
+        assertEquals(List.of(0, 1, 2, 3), indexes(results));
+        assertEquals(List.of(true, true, false, true), successes(results));
+        assertEquals("data integrity violation", GeneratedApplication.call(results.get(2), "getError"));
+        // the item after the failing one, in the same chunk, was stored by the replay
+        assertNotNull(GeneratedApplication.call(results.get(3), "getId"));
+        assertEquals(3L, count());
+    }
+
+    @Test
+    void itemWithoutIdFailsAndTheOthersAreUpdated() throws Exception {
+        start(false);
+        ResponseEntity<?> created = (ResponseEntity<?>) GeneratedApplication.call(controller, "createProducts",
+                List.of(dto(null, "a")));
+        assertEquals(201, created.getStatusCode().value());
+        Object id = GeneratedApplication.call(((List<?>) created.getBody()).get(0), "getId");
+
+        ResponseEntity<?> response = (ResponseEntity<?>) GeneratedApplication.call(controller, "updateProducts",
+                List.of(dto(id, "renamed"), dto(null, "orphan")));
+
+        assertEquals(207, response.getStatusCode().value());
+        List<?> results = (List<?>) response.getBody();
+        assertEquals(List.of(true, false), successes(results));
+        assertEquals(id, GeneratedApplication.call(results.get(0), "getId"));
+        assertEquals("Product id is required", GeneratedApplication.call(results.get(1), "getError"));
+        Object service = GeneratedApplication.bean(context, loader, "com.example.services.ProductService");
+        assertEquals("renamed", GeneratedApplication.call(GeneratedApplication.call(service, "findById", id), "getName"));
+        assertEquals(1L, count());
+    }
+
+    @Test
+    void atomicBatchRollsBackEveryChunk() throws Exception {
+        start(true);
+
+        assertThrows(InvocationTargetException.class, () -> GeneratedApplication.call(controller, "createProducts",
+                List.of(dto(null, "a"), dto(null, "b"), dto(null, null), dto(null, "d"))));
+        assertEquals(0L, count());
+    }
+
+    private void start(boolean atomic) throws Exception {
+        context = GeneratedApplication.start(loader, Map.of("springsmith.batch.atomic", atomic,
+                "springsmith.batch.chunk-size", 2));
+        controller = GeneratedApplication.bean(context, loader, "com.example.controllers.ProductController");
+    }
+
+    private Object dto(Object id, String name) throws Exception {
+        Object dto = GeneratedApplication.newInstance(loader, "com.example.dtos.ProductDTO");
+        GeneratedApplication.call(dto, "setId", id);
+        GeneratedApplication.call(dto, "setName", name);
+        return dto;
+    }
+
+    private long count() throws Exception {
+        return (long) GeneratedApplication.call(
+                GeneratedApplication.bean(context, loader, "com.example.repositories.ProductRepository"), "count");
+    }
+
+    private static List<Object> indexes(List<?> results) throws Exception {
+        List<Object> indexes = new ArrayList<>();
+        for (Object result : results) {
+            indexes.add(GeneratedApplication.call(result, "getIndex"));
+        }
+        return indexes;
+    }
+
+    private static List<Object> successes(List<?> results) throws Exception {
+        List<Object> successes = new ArrayList<>();
+        for (Object result : results) {
+            successes.add(GeneratedApplication.call(result, "isSuccess"));
+        }
+        return successes;
+    }
+}
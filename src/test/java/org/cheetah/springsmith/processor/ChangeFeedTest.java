@@ -0,0 +1,132 @@
+package org.cheetah.springsmith.processor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.InvocationTargetException;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+// Compiles an entity with -Aspringsmith.changes and a tombstone column and pages through the generated change feed: the
+// continuation token resumes after the last row, soft-deleted rows come back as deleted ids and hasMore ends the feed
+class ChangeFeedTest {
+
+    private static final String ENTITY = """
+            package com.example.entity;
+
+            import java.time.Instant;
+
+            import jakarta.persistence.Entity;
+            import jakarta.persistence.GeneratedValue;
+            import jakarta.persistence.Id;
+
+            import org.hibernate.annotations.UpdateTimestamp;
+
+            @Entity
+            public class Note {
+                @Id
+                @GeneratedValue
+                private Long id;
+                private String text;
+                private boolean deleted;
+                @UpdateTimestamp
+                private Instant updatedAt;
+
+                public Long getId() { return id; }
+                public void setId(Long id) { this.id = id; }
+                public String getText() { return text; }
+                public void setText(String text) { this.text = text; }
+                public boolean isDeleted() { return deleted; }
+                public void setDeleted(boolean deleted) { this.deleted = deleted; }
+                public Instant getUpdatedAt() { return updatedAt; }
+                public void setUpdatedAt(Instant updatedAt) { this.updatedAt = updatedAt; }
+            }
+            """;
+
+    @TempDir
+    Path dir;
+
+    private URLClassLoader loader;
+    private AnnotationConfigApplicationContext context;
+    private Object service;
+
+    @BeforeEach
+    void start() throws Exception {
+        loader = GeneratedApplication.compile(dir, Map.of("Note", ENTITY),
+                "-Aspringsmith.changes=true", "-Aspringsmith.changesTombstone=deleted");
+        context = GeneratedApplication.start(loader, Map.of());
+        service = GeneratedApplication.bean(context, loader, "com.example.services.NoteService");
+    }
+
+    @AfterEach
+    void stop() throws Exception {
+        context.close();
+        loader.close();
+    }
+
+    @Test
+    void pagesResumeAfterTheTokenAndReportTombstones() throws Exception {
+        Object first = save("first");
+        Object second = save("second");
+        Object third = save("third");
+        Thread.sleep(5);
+        GeneratedApplication.call(first, "setDeleted", true);
+        GeneratedApplication.call(service, "update", id(first), first);
+
+        Object page = GeneratedApplication.call(service, "findChanges", null, 2);
+        assertEquals(List.of(id(second), id(third)), ids(page));
+        assertEquals(List.of(), GeneratedApplication.call(page, "getDeleted"));
+        assertTrue((boolean) GeneratedApplication.call(page, "isHasMore"));
+
+        // the updated row moved to the end of the feed and comes back as a tombstone
+        page = GeneratedApplication.call(service, "findChanges", GeneratedApplication.call(page, "getNext"), 2);
+        assertEquals(List.of(), ids(page));
+        assertEquals(List.of(id(first)), GeneratedApplication.call(page, "getDeleted"));
+        assertFalse((boolean) GeneratedApplication.call(page, "isHasMore"));
+
+        // caught up: an empty page hands back the same token
+        Object next = GeneratedApplication.call(page, "getNext");
+        page = GeneratedApplication.call(service, "findChanges", next, 2);
+        assertEquals(List.of(), ids(page));
+        assertEquals(next, GeneratedApplication.call(page, "getNext"));
+        assertFalse((boolean) GeneratedApplication.call(page, "isHasMore"));
+    }
+
+    @Test
+    void malformedTokenIsRejected() {
+        InvocationTargetException ex = assertThrows(InvocationTargetException.class,
+                () -> GeneratedApplication.call(service, "findChanges", "not-a-token", 10));
+        assertInstanceOf(IllegalArgumentException.class, ex.getCause());
+    }
+
+    private Object save(String text) throws Exception {
+        Object dto = GeneratedApplication.newInstance(loader, "com.example.dtos.NoteDTO");
+        GeneratedApplication.call(dto, "setText", text);
+        return GeneratedApplication.call(service, "save", dto);
+    }
+
+    private static Object id(Object dto) throws Exception {
+        return GeneratedApplication.call(dto, "getId");
+    }
+
+    private static List<Object> ids(Object page) throws Exception {
+        List<?> changed = (List<?>) GeneratedApplication.call(page, "getChanged");
+        List<Object> ids = new ArrayList<>();
+        for (Object dto : changed) {
+            ids.add(id(dto));
+        }
+        return ids;
+    }
+}
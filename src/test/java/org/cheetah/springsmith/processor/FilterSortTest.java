@@ -0,0 +1,179 @@
+package org.cheetah.springsmith.processor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+
+// Compiles two related entities with -Aspringsmith.filters and -Aspringsmith.expand and queries the generated service:
+// the filter criteria and the sort go to SQL together with paging, a relation id sorts on the association and the
+// filtered expand query keeps the requested order
+class FilterSortTest {
+
+    private static final String AUTHOR = """
+            package com.example.entity;
+
+            import jakarta.persistence.Entity;
+            import jakarta.persistence.GeneratedValue;
+            import jakarta.persistence.Id;
+
+            @Entity
+            public class Author {
+                @Id
+                @GeneratedValue
+                private Long id;
+                private String name;
+
+                public Long getId() { return id; }
+                public void setId(Long id) { this.id = id; }
+                public String getName() { return name; }
+                public void setName(String name) { this.name = name; }
+            }
+            """;
+
+    private static final String BOOK = """
+            package com.example.entity;
+
+            import jakarta.persistence.Entity;
+            import jakarta.persistence.FetchType;
+            import jakarta.persistence.GeneratedValue;
+            import jakarta.persistence.Id;
+            import jakarta.persistence.ManyToOne;
+
+            @Entity
+            public class Book {
+                @Id
+                @GeneratedValue
+                private Long id;
+                private String title;
+                private Integer pages;
+                @ManyToOne(fetch = FetchType.LAZY)
+                private Author author;
+
+                public Long getId() { return id; }
+                public void setId(Long id) { this.id = id; }
+                public String getTitle() { return title; }
+                public void setTitle(String title) { this.title = title; }
+                public Integer getPages() { return pages; }
+                public void setPages(Integer pages) { this.pages = pages; }
+                public Author getAuthor() { return author; }
+                public void setAuthor(Author author) { this.author = author; }
+            }
+            """;
+
+    @TempDir
+    Path dir;
+
+    private URLClassLoader loader;
+    private AnnotationConfigApplicationContext context;
+    private Object books;
+    private Object ann;
+    private Object bob;
+
+    @BeforeEach
+    void start() throws Exception {
+        loader = GeneratedApplication.compile(dir, Map.of("Author", AUTHOR, "Book", BOOK),
+                "-Aspringsmith.filters=true", "-Aspringsmith.expand=true");
+        context = GeneratedApplication.start(loader, Map.of());
+        books = GeneratedApplication.bean(context, loader, "com.example.services.BookService");
+
+        Object authors = GeneratedApplication.bean(context, loader, "com.example.services.AuthorService");
+        ann = GeneratedApplication.call(GeneratedApplication.call(authors, "save", author("Ann")), "getId");
+        bob = GeneratedApplication.call(GeneratedApplication.call(authors, "save", author("Bob")), "getId");
+        book("Java basics", 100, ann);
+        book("Advanced Java", 400, bob);
+        book("java tools", 250, bob);
+        book("Kotlin", 200, ann);
+    }
+
+    @AfterEach
+    void stop() throws Exception {
+        context.close();
+        loader.close();
+    }
+
+    @Test
+    void criteriaAndSortArePagedTogether() throws Exception {
+        Object filter = filter();
+        GeneratedApplication.call(filter, "setTitleLike", "JAVA");
+        GeneratedApplication.call(filter, "setPagesFrom", 100);
+        GeneratedApplication.call(filter, "setPagesTo", 300);
+
+        Page<?> page = (Page<?>) GeneratedApplication.call(books, "findAll",
+                PageRequest.of(0, 1, Sort.by(Sort.Direction.DESC, "pages")), filter);
+
+        assertEquals(2, page.getTotalElements());
+        assertEquals(List.of("java tools"), titles(page));
+    }
+
+    @Test
+    void relationIdSortsOnTheAssociation() throws Exception {
+        Object filter = filter();
+        GeneratedApplication.call(filter, "setAuthorIdIn", List.of(ann, bob));
+
+        Page<?> page = (Page<?>) GeneratedApplication.call(books, "findAll",
+                PageRequest.of(0, 10, Sort.by(Sort.Order.desc("authorId"), Sort.Order.asc("pages"))), filter);
+
+        assertEquals(List.of("java tools", "Advanced Java", "Java basics", "Kotlin"), titles(page));
+
+        // without criteria the list comes from the projection query, where authorId is not a path of its own
+        page = (Page<?>) GeneratedApplication.call(books, "findAll",
+                PageRequest.of(0, 10, Sort.by(Sort.Order.desc("authorId"), Sort.Order.asc("pages"))));
+        assertEquals(List.of("java tools", "Advanced Java", "Java basics", "Kotlin"), titles(page));
+    }
+
+    @Test
+    void filteredExpandKeepsTheSort() throws Exception {
+        Object filter = filter();
+        GeneratedApplication.call(filter, "setPagesFrom", 150);
+
+        Page<?> page = (Page<?>) GeneratedApplication.call(books, "findAll",
+                PageRequest.of(0, 10, Sort.by(Sort.Direction.ASC, "pages")), filter, Set.of("author"));
+
+        assertEquals(List.of("Kotlin", "java tools", "Advanced Java"), titles(page));
+        List<Object> names = new ArrayList<>();
+        for (Object dto : page.getContent()) {
+            names.add(GeneratedApplication.call(GeneratedApplication.call(dto, "getAuthor"), "getName"));
+        }
+        assertEquals(List.of("Ann", "Bob", "Bob"), names);
+    }
+
+    private Object author(String name) throws Exception {
+        Object dto = GeneratedApplication.newInstance(loader, "com.example.dtos.AuthorDTO");
+        GeneratedApplication.call(dto, "setName", name);
+        return dto;
+    }
+
+    private void book(String title, int pages, Object authorId) throws Exception {
+        Object dto = GeneratedApplication.newInstance(loader, "com.example.dtos.BookDTO");
+        GeneratedApplication.call(dto, "setTitle", title);
+        GeneratedApplication.call(dto, "setPages", pages);
+        GeneratedApplication.call(dto, "setAuthorId", authorId);
+        GeneratedApplication.call(books, "save", dto);
+    }
+
+    private Object filter() throws Exception {
+        return GeneratedApplication.newInstance(loader, "com.example.dtos.BookFilter");
+    }
+
+    private static List<Object> titles(Page<?> page) throws Exception {
+        List<Object> titles = new ArrayList<>();
+        for (Object dto : page.getContent()) {
+            titles.add(GeneratedApplication.call(dto, "getTitle"));
+        }
+        return titles;
+    }
+}
@@ -0,0 +1,103 @@
+package org.cheetah.springsmith.processor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mapstruct.ap.MappingProcessor;
+
+// Compiles an entity with springsmith and MapStruct, then patches one property through the generated mapper:
+// the primitive properties missing from the body must keep their values
+class PatchMappingTest {
+
+    private static final String ENTITY = """
+            package com.example.entity;
+
+            import jakarta.persistence.Entity;
+            import jakarta.persistence.GeneratedValue;
+            import jakarta.persistence.Id;
+
+            @Entity
+            public class Product {
+                @Id
+                @GeneratedValue
+                private Long id;
+                private String name;
+                private int stock;
+                private boolean active;
+                private double price;
+
+                public Long getId() { return id; }
+                public void setId(Long id) { this.id = id; }
+                public String getName() { return name; }
+                public void setName(String name) { this.name = name; }
+                public int getStock() { return stock; }
+                public void setStock(int stock) { this.stock = stock; }
+                public boolean isActive() { return active; }
+                public void setActive(boolean active) { this.active = active; }
+                public double getPrice() { return price; }
+                public void setPrice(double price) { this.price = price; }
+            }
+            """;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void patchKeepsPrimitivePropertiesMissingFromTheBody() throws Exception {
+        Path source = dir.resolve("src/com/example/entity/Product.java");
+        Files.createDirectories(source.getParent());
+        Files.writeString(source, ENTITY);
+        Path classes = Files.createDirectories(dir.resolve("classes"));
+        Path generated = Files.createDirectories(dir.resolve("generated"));
+
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        try (StandardJavaFileManager files = javac.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8)) {
+            JavaCompiler.CompilationTask task = javac.getTask(null, files, diagnostics,
+                    List.of("-classpath", System.getProperty("java.class.path"), "-d", classes.toString(),
+                            "-s", generated.toString()),
+                    null, files.getJavaFileObjects(source));
+            task.setProcessors(List.of(new CrudScaffoldingProcessor(), new MappingProcessor()));
+            assertTrue(task.call(), () -> diagnostics.getDiagnostics().toString());
+        }
+
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{classes.toUri().toURL()}, getClass().getClassLoader())) {
+            Class<?> entityType = loader.loadClass("com.example.entity.Product");
+            Class<?> patchType = loader.loadClass("com.example.dtos.ProductPatchDTO");
+            Object mapper = loader.loadClass("com.example.mappers.ProductMapperImpl").getConstructor().newInstance();
+
+            Object product = entityType.getConstructor().newInstance();
+            entityType.getMethod("setName", String.class).invoke(product, "before");
+            entityType.getMethod("setStock", int.class).invoke(product, 7);
+            entityType.getMethod("setActive", boolean.class).invoke(product, true);
+            entityType.getMethod("setPrice", double.class).invoke(product, 9.5);
+
+            // PATCH {"name": "after"}
+            Object patch = patchType.getConstructor().newInstance();
+            patchType.getMethod("setName", String.class).invoke(patch, "after");
+            Method patchProduct = mapper.getClass().getMethod("patchProduct", patchType, entityType);
+            patchProduct.invoke(mapper, patch, product);
+
+            assertEquals("after", entityType.getMethod("getName").invoke(product));
+            assertEquals(7, entityType.getMethod("getStock").invoke(product));
+            assertEquals(true, entityType.getMethod("isActive").invoke(product));
+            assertEquals(9.5, entityType.getMethod("getPrice").invoke(product));
+        }
+    }
+}
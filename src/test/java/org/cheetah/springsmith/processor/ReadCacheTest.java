@@ -0,0 +1,101 @@
+package org.cheetah.springsmith.processor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Compiles an entity with -Aspringsmith.cache and exercises the generated XCache: a load that raced an eviction is not
+// stored, expired entries are misses, and a full cache is trimmed below its limit
+class ReadCacheTest {
+
+    private static final String ENTITY = """
+            package com.example.entity;
+
+            import jakarta.persistence.Entity;
+            import jakarta.persistence.GeneratedValue;
+            import jakarta.persistence.Id;
+
+            @Entity
+            public class Product {
+                @Id
+                @GeneratedValue
+                private Long id;
+                private String name;
+
+                public Long getId() { return id; }
+                public void setId(Long id) { this.id = id; }
+                public String getName() { return name; }
+                public void setName(String name) { this.name = name; }
+            }
+            """;
+
+    @TempDir
+    Path dir;
+
+    private URLClassLoader loader;
+
+    @BeforeEach
+    void compile() throws Exception {
+        loader = GeneratedApplication.compile(dir, Map.of("Product", ENTITY), "-Aspringsmith.cache=Product");
+    }
+
+    @Test
+    void loadThatRacedAnEvictionIsNotStored() throws Exception {
+        Object cache = cache(1000, Duration.ofMinutes(10));
+        Object dto = dto(1L);
+
+        // stamp taken before the load, eviction by a concurrent write, then the stale value arrives
+        long stamp = (long) GeneratedApplication.call(cache, "stamp");
+        GeneratedApplication.call(cache, "evict", 1L);
+        GeneratedApplication.call(cache, "put", 1L, dto, stamp);
+        assertNull(GeneratedApplication.call(cache, "get", 1L));
+
+        GeneratedApplication.call(cache, "put", 1L, dto, GeneratedApplication.call(cache, "stamp"));
+        assertSame(dto, GeneratedApplication.call(cache, "get", 1L));
+        assertEquals(1L, GeneratedApplication.call(cache, "getHitCount"));
+        assertEquals(1L, GeneratedApplication.call(cache, "getMissCount"));
+    }
+
+    @Test
+    void expiredEntryIsAMiss() throws Exception {
+        Object cache = cache(1000, Duration.ofNanos(1));
+        GeneratedApplication.call(cache, "put", 1L, dto(1L), GeneratedApplication.call(cache, "stamp"));
+        Thread.sleep(1);
+
+        assertNull(GeneratedApplication.call(cache, "get", 1L));
+        assertEquals(0, GeneratedApplication.call(cache, "size"));
+        assertEquals(1L, GeneratedApplication.call(cache, "getEvictionCount"));
+    }
+
+    @Test
+    void fullCacheIsTrimmedToNinetyPercent() throws Exception {
+        Object cache = cache(10, Duration.ofMinutes(10));
+        for (long id = 1; id <= 11; id++) {
+            GeneratedApplication.call(cache, "put", id, dto(id), GeneratedApplication.call(cache, "stamp"));
+        }
+
+        assertEquals(9, GeneratedApplication.call(cache, "size"));
+        assertEquals(2L, GeneratedApplication.call(cache, "getEvictionCount"));
+    }
+
+    private Object cache(int maximumSize, Duration ttl) throws Exception {
+        return loader.loadClass("com.example.services.ProductCache")
+                .getConstructor(int.class, Duration.class)
+                .newInstance(maximumSize, ttl);
+    }
+
+    private Object dto(long id) throws Exception {
+        Object dto = GeneratedApplication.newInstance(loader, "com.example.dtos.ProductDTO");
+        GeneratedApplication.call(dto, "setId", id);
+        return dto;
+    }
+}